@@ -1,5 +1,6 @@
 import javax.swing.*;
 import java.awt.*;
+import java.awt.image.BufferedImage;
 import java.util.List;
 import java.util.*;
 
@@ -21,6 +22,11 @@ public class Canvas{
 
 	private static Canvas canvasSingleton;
 
+	/** Layer for shapes that change: repainted on every redraw. */
+	public static final int FOREGROUND = 0;
+	/** Layer for static shapes: painted once into a cached image. */
+	public static final int BACKGROUND = 1;
+
 	/**
 	 * Factory method to get the canvas singleton object.
 	 */
@@ -33,6 +39,17 @@ public class Canvas{
 		return canvasSingleton;
 	}
 
+	/**
+	 * Create a canvas that draws into an image instead of a window. It works
+	 * headless, and separate offscreen canvases can be drawn into from separate
+	 * threads.
+	 * @param width  the width of the image
+	 * @param height  the height of the image
+	 */
+	public static Canvas offscreen(int width, int height){
+		return new Canvas(width, height, Color.white);
+	}
+
 	//  ----- instance part -----
 
     private JFrame frame;
@@ -40,8 +57,28 @@ public class Canvas{
     private Graphics2D graphic;
     private Color backgroundColour;
     private Image canvasImage;
-    private List <Object> objects;
+    private Set <Object> objects;
+    private Set <Object> backgroundObjects;
     private HashMap <Object,ShapeDescription> shapes;
+    private Image backgroundImage;
+    private boolean backgroundDirty;
+    private boolean dirty;
+    private int batchDepth;
+    // Counters for tests: draw calls, composited frames and background rasterizations.
+    private long drawCalls;
+    private long composites;
+    private long backgroundRenders;
+
+    /**
+     * Create a Canvas in its own window, besides the shared one.
+     * @param title  title to appear in Canvas Frame
+     * @param width  the desired width for the canvas
+     * @param height  the desired height for the canvas
+     */
+    public Canvas(String title, int width, int height){
+        this(title, width, height, Color.white);
+        setVisible(true);
+    }
     
     /**
      * Create a Canvas.
@@ -58,8 +95,48 @@ public class Canvas{
         canvas.setPreferredSize(new Dimension(width, height));
         backgroundColour = bgColour;
         frame.pack();
-        objects = new ArrayList <Object>();
+        objects = new LinkedHashSet <Object>();
+        backgroundObjects = new LinkedHashSet <Object>();
+        shapes = new HashMap <Object,ShapeDescription>();
+        backgroundDirty = true;
+    }
+
+    /**
+     * Create an offscreen Canvas, with no frame.
+     */
+    private Canvas(int width, int height, Color bgColour){
+        backgroundColour = bgColour;
+        canvasImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        graphic = (Graphics2D)canvasImage.getGraphics();
+        graphic.setColor(backgroundColour);
+        graphic.fillRect(0, 0, width, height);
+        graphic.setColor(Color.black);
+        objects = new LinkedHashSet <Object>();
+        backgroundObjects = new LinkedHashSet <Object>();
         shapes = new HashMap <Object,ShapeDescription>();
+        backgroundDirty = true;
+    }
+
+    /**
+     * Copy the image currently shown by the canvas. The copy does not change
+     * when the canvas is drawn into afterwards.
+     * @return a new image with the contents of the canvas
+     */
+    public synchronized BufferedImage snapshot(){
+        int width = canvasImage.getWidth(null);
+        int height = canvasImage.getHeight(null);
+        BufferedImage copy = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics g = copy.getGraphics();
+        g.drawImage(canvasImage, 0, 0, null);
+        g.dispose();
+        return copy;
+    }
+
+    /**
+     * @return true if this canvas draws into an image and has no window.
+     */
+    public boolean isOffscreen(){
+        return frame == null;
     }
 
     /**
@@ -70,6 +147,7 @@ public class Canvas{
      * the canvas (true or false) 
      */
     public void setVisible(boolean visible){
+        if(frame == null) return;
         if(graphic == null) {
             // first time: instantiate the offscreen image and fill it with
             // the background colour
@@ -93,20 +171,90 @@ public class Canvas{
      // objects. It is carefully designed to keep the visible shape interfaces
      // in this project clean and simple for educational purposes.
     public void draw(Object referenceObject, String color, Shape shape){
-    	objects.remove(referenceObject);   // just in case it was already there
-    	objects.add(referenceObject);      // add at the end
-    	shapes.put(referenceObject, new ShapeDescription(shape, color));
-    	redraw();
+        draw(referenceObject, color, shape, FOREGROUND);
+    }
+
+    /**
+     * Draw a given shape onto one layer of the canvas. Inside a batch (see
+     * beginBatch) the shape is only recorded and shows up when the batch ends.
+     * @param  referenceObject  an object to define identity for this shape
+     * @param  color            the color of the shape
+     * @param  shape            the shape object to be drawn on the canvas
+     * @param  layer            FOREGROUND or BACKGROUND
+     */
+    public synchronized void draw(Object referenceObject, String color, Shape shape, int layer){
+        drawCalls++;
+        if (backgroundObjects.remove(referenceObject)) backgroundDirty = true;
+        objects.remove(referenceObject);   // just in case it was already there
+        if (layer == BACKGROUND) {
+            backgroundObjects.add(referenceObject);
+            backgroundDirty = true;
+        } else {
+            objects.add(referenceObject);  // add at the end
+        }
+        shapes.put(referenceObject, new ShapeDescription(shape, color));
+        dirty = true;
+        if (batchDepth == 0) flush();
     }
  
     /**
-     * Erase a given shape's from the screen.
+     * Erase a given shape's from the screen. Inside a batch the change shows up
+     * when the batch ends.
      * @param  referenceObject  the shape object to be erased 
      */
-    public void erase(Object referenceObject){
+    public synchronized void erase(Object referenceObject){
+        if (backgroundObjects.remove(referenceObject)) backgroundDirty = true;
     	objects.remove(referenceObject);   // just in case it was already there
-    	shapes.remove(referenceObject);
-    	redraw();
+    	if (shapes.remove(referenceObject) != null) dirty = true;
+    	if (batchDepth == 0) flush();
+    }
+
+    /**
+     * Start a batch: until the matching endBatch, draw and erase only record
+     * their changes, and the canvas is composited once at the end. Batches nest.
+     */
+    public synchronized void beginBatch(){
+        batchDepth++;
+    }
+
+    /**
+     * End a batch started with beginBatch. When the outermost batch ends, the
+     * background is rasterized (if its shapes changed) and the canvas is
+     * composited once.
+     */
+    public synchronized void endBatch(){
+        if (batchDepth == 0) throw new IllegalStateException("endBatch without beginBatch");
+        batchDepth--;
+        if (batchDepth == 0) flush();
+    }
+
+    /**
+     * Composite the pending changes now, if there are any.
+     */
+    public synchronized void flush(){
+        if (!dirty && !backgroundDirty) return;
+        redraw();
+        dirty = false;
+    }
+
+    /** @return number of draw calls received so far. */
+    synchronized long drawCount(){
+        return drawCalls;
+    }
+
+    /** @return number of times the canvas has been composited so far. */
+    synchronized long compositeCount(){
+        return composites;
+    }
+
+    /** @return number of times the background layer has been rasterized so far. */
+    synchronized long backgroundRenderCount(){
+        return backgroundRenders;
+    }
+
+    /** @return number of shapes currently in the foreground layer. */
+    synchronized int foregroundShapeCount(){
+        return objects.size();
     }
 
     /**
@@ -114,22 +262,26 @@ public class Canvas{
      * @param  newColour   the new colour for the foreground of the Canvas 
      */
     public void setForegroundColor(String colorString){
+        graphic.setColor(colorFor(colorString));
+    }
+
+    private static Color colorFor(String colorString){
 		if(colorString.equals("red"))
-			graphic.setColor(Color.red);
+			return Color.red;
 		else if(colorString.equals("black"))
-			graphic.setColor(Color.black);
+			return Color.black;
 		else if(colorString.equals("blue"))
-			graphic.setColor(Color.blue);
+			return Color.blue;
 		else if(colorString.equals("yellow"))
-			graphic.setColor(Color.yellow);
+			return Color.yellow;
 		else if(colorString.equals("green"))
-			graphic.setColor(Color.green);
+			return Color.green;
 		else if(colorString.equals("magenta"))
-			graphic.setColor(Color.magenta);
+			return Color.magenta;
 		else if(colorString.equals("white"))
-			graphic.setColor(Color.white);
+			return Color.white;
 		else
-			graphic.setColor(Color.black);
+			return Color.black;
     }
 
     /**
@@ -147,25 +299,37 @@ public class Canvas{
     }
 
 	/**
-	 * Redraw ell shapes currently on the Canvas.
+	 * Redraw ell shapes currently on the Canvas. The background layer is copied
+	 * from its cached image, which is only repainted when its shapes change.
 	 */
 	private void redraw(){
-		erase();
+		if (backgroundDirty) renderBackground();
+		composites++;
+		graphic.drawImage(backgroundImage, 0, 0, null);
 		for(Iterator i=objects.iterator(); i.hasNext(); ) {
                        shapes.get(i.next()).draw(graphic);
         }
-        canvas.repaint();
+        if (canvas != null) canvas.repaint();
     }
        
     /**
-     * Erase the whole canvas. (Does not repaint.)
+     * Paint the background colour and the background layer into the cached image.
      */
-    private void erase(){
-        Color original = graphic.getColor();
-        graphic.setColor(backgroundColour);
-        Dimension size = canvas.getSize();
-        graphic.fill(new java.awt.Rectangle(0, 0, size.width, size.height));
-        graphic.setColor(original);
+    private void renderBackground(){
+        Dimension size = (canvas != null) ? canvas.getSize()
+            : new Dimension(canvasImage.getWidth(null), canvasImage.getHeight(null));
+        if (backgroundImage == null || backgroundImage.getWidth(null) != size.width
+                || backgroundImage.getHeight(null) != size.height) {
+            backgroundImage = (canvas != null) ? canvas.createImage(size.width, size.height)
+                : new BufferedImage(size.width, size.height, BufferedImage.TYPE_INT_RGB);
+        }
+        Graphics2D g = (Graphics2D) backgroundImage.getGraphics();
+        g.setColor(backgroundColour);
+        g.fill(new java.awt.Rectangle(0, 0, size.width, size.height));
+        for (Object o : backgroundObjects) shapes.get(o).draw(g);
+        g.dispose();
+        backgroundDirty = false;
+        backgroundRenders++;
     }
 
 
@@ -195,7 +359,7 @@ public class Canvas{
     	}
 
 		public void draw(Graphics2D graphic){
-			setForegroundColor(colorString);
+			graphic.setColor(colorFor(colorString));
 			graphic.draw(shape);
 			graphic.fill(shape);
 		}
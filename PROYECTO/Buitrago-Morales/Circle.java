@@ -17,6 +17,7 @@ public class Circle{
     private int yPosition;
     private String color;
     private boolean isVisible;
+    private Canvas canvas;
     
 
     public Circle(){
@@ -40,9 +41,20 @@ public class Circle{
         isVisible = false;
     }
 
+    /**
+     * Choose the canvas this circle draws into.
+     * @param canvas the canvas, or null for the shared one (Canvas.getCanvas())
+     */
+    public void setCanvas(Canvas canvas){
+        if(canvas == this.canvas) return;
+        erase();
+        this.canvas = canvas;
+        draw();
+    }
+
     private void draw(){
         if(isVisible) {
-            Canvas canvas = Canvas.getCanvas();
+            Canvas canvas = (this.canvas != null) ? this.canvas : Canvas.getCanvas();
             canvas.draw(this, color, 
                 new Ellipse2D.Double(xPosition, yPosition, 
                 diameter, diameter));
@@ -52,7 +64,7 @@ public class Circle{
 
     private void erase(){
         if(isVisible) {
-            Canvas canvas = Canvas.getCanvas();
+            Canvas canvas = (this.canvas != null) ? this.canvas : Canvas.getCanvas();
             canvas.erase(this);
         }
     }
@@ -0,0 +1,201 @@
+/**
+ * Variante de Tower segura para usarse desde varios hilos.
+ * Las operaciones que modifican la torre se ejecutan de a una (un solo escritor),
+ * y al terminar cada una se publica una foto inmutable del estado en una
+ * referencia volatile. Las consultas leen esa foto, por lo que nunca se bloquean
+ * ni ven un estado a medio modificar.
+ *
+ * Publicar cuesta O(1): la foto guarda la versión persistente de la torre
+ * (Tower.snapshot()), que no se copia, junto con la versión, la altura y las copas
+ * tapadas; estas últimas solo se vuelven a pedir cuando cambian. Los arreglos que
+ * devuelve stackingItems() se arman del lado del lector, la primera vez que se piden
+ * a cada foto.
+ *
+ * @author Julian Morales - Sergio Buitrago
+ */
+public class ConcurrentTower {
+    private final Tower tower;
+    private volatile Snapshot snapshot;
+
+    /**
+     * Crea una torre concurrente vacía (siempre invisible).
+     * @param width ancho de la torre, debe ser positivo.
+     * @param maxHeight altura máxima de la torre, debe ser positiva.
+     */
+    public ConcurrentTower(int width, int maxHeight) {
+        this.tower = new Tower(width, maxHeight);
+        this.snapshot = new Snapshot(tower, null);
+    }
+
+    public void pushCup(int i) {
+        synchronized (tower) {
+            tower.pushCup(i);
+            publish();
+        }
+    }
+
+    public void popCup() {
+        synchronized (tower) {
+            tower.popCup();
+            publish();
+        }
+    }
+
+    public void removeCup(int i) {
+        synchronized (tower) {
+            tower.removeCup(i);
+            publish();
+        }
+    }
+
+    public void pushLid(int i) {
+        synchronized (tower) {
+            tower.pushLid(i);
+            publish();
+        }
+    }
+
+    public void popLid() {
+        synchronized (tower) {
+            tower.popLid();
+            publish();
+        }
+    }
+
+    public void removeLid(int i) {
+        synchronized (tower) {
+            tower.removeLid(i);
+            publish();
+        }
+    }
+
+    public void orderTower() {
+        synchronized (tower) {
+            tower.orderTower();
+            publish();
+        }
+    }
+
+    public void reverseTower() {
+        synchronized (tower) {
+            tower.reverseTower();
+            publish();
+        }
+    }
+
+    public void swap(String[] o1, String[] o2) {
+        synchronized (tower) {
+            tower.swap(o1, o2);
+            publish();
+        }
+    }
+
+    public void cover() {
+        synchronized (tower) {
+            tower.cover();
+            publish();
+        }
+    }
+
+    /**
+     * swapToReduce recorre la torre completa, así que se evalúa con el escritor
+     * detenido en lugar de hacerlo sobre la foto publicada.
+     */
+    public String[][] swapToReduce() {
+        return tower.swapToReduce();
+    }
+
+    public int height() {
+        return snapshot.height();
+    }
+
+    public boolean ok() {
+        return snapshot.ok();
+    }
+
+    public int[] lidedCups() {
+        return snapshot.lidedCups();
+    }
+
+    public String[][] stackingItems() {
+        return snapshot.stackingItems();
+    }
+
+    /**
+     * @return la última foto publicada. Sus consultas corresponden todas al mismo
+     * estado, a diferencia de llamar height() y stackingItems() por separado.
+     */
+    public Snapshot snapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Publica la foto del estado actual. Se llama con el candado de la torre tomado, así
+     * que las fotos se publican en el mismo orden que las operaciones.
+     */
+    private void publish() {
+        snapshot = new Snapshot(tower, snapshot);
+    }
+
+    /**
+     * Foto inmutable de los valores que exponen las consultas.
+     * Sus campos son final, así que quien lea la referencia volatile los ve
+     * completamente construidos; el arreglo de stackingItems() se arma al primer
+     * pedido y se guarda en un campo volatile.
+     */
+    public static final class Snapshot {
+        private final PersistentTower state;
+        private final long version;
+        private final int height;
+        private final boolean ok;
+        private final long lidedVersion;
+        private final int[] lidedCups;
+        private volatile String[][] stackingItems;
+
+        /** Toma la foto; reutiliza las copas tapadas de 'previous' si no cambiaron. */
+        private Snapshot(Tower tower, Snapshot previous) {
+            this.state = tower.snapshot();
+            this.version = tower.version();
+            this.height = tower.height();
+            this.ok = tower.ok();
+            this.lidedVersion = tower.lidedVersion();
+            this.lidedCups = (previous != null && previous.lidedVersion == lidedVersion)
+                ? previous.lidedCups : tower.lidedCups();
+        }
+
+        /** @return versión persistente de los elementos, sin copiar. */
+        public PersistentTower tower() {
+            return state;
+        }
+
+        /** @return valor de Tower.version() al tomar la foto. */
+        public long version() {
+            return version;
+        }
+
+        public int height() {
+            return height;
+        }
+
+        public boolean ok() {
+            return ok;
+        }
+
+        public int[] lidedCups() {
+            return lidedCups.clone();
+        }
+
+        public String[][] stackingItems() {
+            String[][] items = stackingItems;
+            if (items == null) {
+                items = state.stackingItems();
+                stackingItems = items;
+            }
+            String[][] result = new String[items.length][];
+            for (int i = 0; i < items.length; i++) {
+                result[i] = items[i].clone();
+            }
+            return result;
+        }
+    }
+}
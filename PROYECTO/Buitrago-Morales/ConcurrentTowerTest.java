@@ -0,0 +1,114 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Clase de pruebas unitarias para la clase ConcurrentTower.
+ *
+ * @author Julian Morales - Sergio Buitrago
+ *
+ */
+public class ConcurrentTowerTest {
+
+    /**
+     * Las consultas deben reflejar lo mismo que una Tower normal.
+     */
+    @Test
+    public void queries_shouldMatchPlainTower() {
+        ConcurrentTower ct = new ConcurrentTower(60, 30);
+        Tower t = new Tower(60, 30);
+        ct.pushCup(4); t.pushCup(4);
+        ct.pushCup(3); t.pushCup(3);
+        ct.pushLid(4); t.pushLid(4);
+
+        assertEquals(t.height(), ct.height());
+        assertEquals(t.ok(), ct.ok());
+        assertArrayEquals(t.lidedCups(), ct.lidedCups());
+        assertArrayEquals(t.stackingItems(), ct.stackingItems());
+    }
+
+    /**
+     * Modificar los arreglos devueltos no debe alterar la foto publicada.
+     */
+    @Test
+    public void returnedArrays_shouldNotExposeSnapshot() {
+        ConcurrentTower ct = new ConcurrentTower(60, 30);
+        ct.pushCup(2);
+        ct.pushLid(2);
+
+        ct.lidedCups()[0] = 99;
+        ct.stackingItems()[0][1] = "99";
+
+        assertArrayEquals(new int[]{2}, ct.lidedCups());
+        assertEquals("2", ct.stackingItems()[0][1]);
+    }
+
+    /**
+     * Las copas tapadas de la foto deben seguir los cambios aunque la foto las
+     * reutilice mientras no cambian.
+     */
+    @Test
+    public void lidedCups_shouldFollowLidChanges() {
+        ConcurrentTower ct = new ConcurrentTower(60, 60);
+        ct.pushCup(3);
+        ct.pushLid(3);
+        ct.pushCup(2);
+        assertArrayEquals(new int[]{3}, ct.lidedCups());
+        ct.pushLid(2);
+        assertArrayEquals(new int[]{2, 3}, ct.lidedCups());
+        ct.popLid();
+        ct.popCup();
+        assertArrayEquals(new int[]{3}, ct.lidedCups());
+    }
+
+    /**
+     * Escritores y lectores simultáneos no deben lanzar excepciones
+     * y cada lectura debe ver un estado consistente.
+     */
+    @Test
+    public void concurrentWritersAndReaders_shouldSeeConsistentState() throws Exception {
+        final ConcurrentTower ct = new ConcurrentTower(200, 10000);
+        final Throwable[] failure = new Throwable[1];
+
+        Thread writer = new Thread(new Runnable() {
+            public void run() {
+                for (int round = 0; round < 200; round++) {
+                    for (int i = 1; i <= 20; i++) ct.pushCup(i);
+                    for (int i = 1; i <= 20; i++) ct.popCup();
+                }
+            }
+        });
+        Thread reader = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    long lastVersion = -1;
+                    for (int k = 0; k < 5000; k++) {
+                        ConcurrentTower.Snapshot s = ct.snapshot();
+                        String[][] items = s.stackingItems();
+                        assertTrue(items.length <= 20);
+                        assertTrue(s.version() >= lastVersion);
+                        lastVersion = s.version();
+
+                        // La altura de la foto corresponde a sus propios elementos.
+                        PersistentTower p = PersistentTower.empty();
+                        for (String[] item : items) {
+                            int n = Integer.parseInt(item[1]);
+                            p = p.push("cup".equals(item[0]) ? PersistentTower.cupCode(n) : PersistentTower.lidCode(n));
+                        }
+                        assertEquals(p.height(), s.height());
+                        assertEquals(s.tower().size(), items.length);
+                    }
+                } catch (Throwable e) {
+                    failure[0] = e;
+                }
+            }
+        });
+        writer.start();
+        reader.start();
+        writer.join();
+        reader.join();
+
+        assertNull(failure[0]);
+        assertEquals(0, ct.height());
+        assertTrue(ct.ok());
+    }
+}
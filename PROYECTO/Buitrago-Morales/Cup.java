@@ -6,23 +6,18 @@
  */
 public class Cup {
 
-    private int cupId;                 
-    private int cmHeight;              
-    private String tone;               
-    private Lid pairedCover;           
+    /** Colores de copas y tapas, compartidos por todas las instancias. */
+    static final String[] PALETTE = {"red", "blue", "green", "yellow", "magenta", "black"};
 
-    private Rectangle slabRect;        
-    private Rectangle wallLeftRect;    
-    private Rectangle wallRightRect;  
+    private final int cupId;
+    private Lid pairedCover;
+
+    /** Parte gráfica; null hasta que la copa se dibuja por primera vez. */
+    private Drawing drawing;
 
     private static final int ANCHOR_X = 70;  
     private static final int ANCHOR_Y = 15;  
 
-    private Integer lastX = null;      
-    private Integer lastY = null;
-    private Integer lastW = null;      
-    private Integer lastH = null;
-
     /**
      * Crea una copa con un tamaño específico.
      * @param number El número de la copa debe ser > 0
@@ -32,21 +27,14 @@ public class Cup {
             throw new IllegalArgumentException("Cup number must be positive");
         }
         this.cupId = number;
-        this.cmHeight = 2 * number - 1;
-        this.tone = generateColor(number);
         this.pairedCover = null;
-
-        this.slabRect = new Rectangle();
-        this.wallLeftRect = new Rectangle();
-        this.wallRightRect = new Rectangle();
     }
 
     /**
-     * Genera un color único para cada copa.
+     * Color que corresponde a una copa o tapa según su número.
      */
-    private String generateColor(int n) {
-        String[] palette = {"red", "blue", "green", "yellow", "magenta", "black"};
-        return palette[(n - 1) % palette.length];
+    static String colorOf(int n) {
+        return PALETTE[(n - 1) % PALETTE.length];
     }
 
     
@@ -60,105 +48,116 @@ public class Cup {
      * @param h Alto total en píxeles
      */
     public void makeVisibleAt(int x, int y, int w, int h) {
-        
-        int pxPerCm = (cmHeight > 0) ? Math.max(1, Math.round((float) h / cmHeight)) : 1;
-        int baseThicknessPx = Math.max(1, pxPerCm);
-        int wallsHeightPx   = Math.max(0, h - baseThicknessPx);
-        int wallWidthPx     = Math.max(1, baseThicknessPx);
-
-        int baseX = x;
-        int baseY = y + h - baseThicknessPx;
-
-        int leftX = x;
-        int leftY = y;
-
-        int rightX = x + w - wallWidthPx;
-        int rightY = y;
-
-        slabRect.changeSize(baseThicknessPx, w);
-        slabRect.changeColor(tone);
-
-        wallLeftRect.changeSize(wallsHeightPx, wallWidthPx);
-        wallLeftRect.changeColor(tone);
-
-        wallRightRect.changeSize(wallsHeightPx, wallWidthPx);
-        wallRightRect.changeColor(tone);
-
-        if (lastX == null) {
-            
-            slabRect.moveHorizontal(baseX - ANCHOR_X);
-            slabRect.moveVertical(baseY - ANCHOR_Y);
-
-            if (wallsHeightPx > 0) {
-                wallLeftRect.moveHorizontal(leftX - ANCHOR_X);
-                wallLeftRect.moveVertical(leftY - ANCHOR_Y);
-
-                wallRightRect.moveHorizontal(rightX - ANCHOR_X);
-                wallRightRect.moveVertical(rightY - ANCHOR_Y);
-            } else {
-                wallLeftRect.makeInvisible();
-                wallRightRect.makeInvisible();
-            }
-        } else {
-            
-            int prevPxPerCm = (cmHeight > 0) ? Math.max(1, Math.round((float) lastH / cmHeight)) : 1;
-            int prevBaseTh  = Math.max(1, prevPxPerCm);
-            int prevWallsH  = Math.max(0, lastH - prevBaseTh);
-            int prevWallW   = Math.max(1, prevBaseTh);
-
-            int prevBaseX = lastX;
-            int prevBaseY = lastY + lastH - prevBaseTh;
-
-            int prevLeftX = lastX;
-            int prevLeftY = lastY;
-
-            int prevRightX = lastX + lastW - prevWallW;
-            int prevRightY = lastY;
-
-            slabRect.moveHorizontal(baseX - prevBaseX);
-            slabRect.moveVertical(baseY - prevBaseY);
-
-            if (wallsHeightPx > 0) {
-                wallLeftRect.moveHorizontal(leftX - prevLeftX);
-                wallLeftRect.moveVertical(leftY - prevLeftY);
-
-                wallRightRect.moveHorizontal(rightX - prevRightX);
-                wallRightRect.moveVertical(rightY - prevRightY);
-            } else {
-                wallLeftRect.makeInvisible();
-                wallRightRect.makeInvisible();
-            }
-        }
+        makeVisibleAt(null, x, y, w, h);
+    }
 
-        
-        slabRect.makeVisible();
-        if (wallsHeightPx > 0) {
-            wallLeftRect.makeVisible();
-            wallRightRect.makeVisible();
-        }
+    /**
+     * Igual a makeVisibleAt(x, y, w, h), pero dibuja en el canvas dado. Si la copa
+     * estaba dibujada en otro, se borra de ese primero.
+     *
+     * @param canvas Canvas donde dibujar, o null para el compartido
+     */
+    public void makeVisibleAt(Canvas canvas, int x, int y, int w, int h) {
+        drawAt(canvas, x, y, w, h, 0, 0);
+        if (hasLid()) getLid().attachTo(this);
+    }
 
-        
-        lastX = x;
-        lastY = y;
-        lastW = w;
-        lastH = h;
-        
-        if (hasLid()) {
-            getLid().attachTo(this); 
+    /**
+     * Dibuja solo la "U" de la copa, sin tocar su tapa ni su asociación. Tower lo usa
+     * al dibujar fuera de su candado, donde la asociación puede estar cambiando.
+     * Cada rectángulo (base y paredes) se muestra solo si cruza el área visible, así
+     * que una copa enorme de la que apenas se ve la base no dibuja sus paredes.
+     *
+     * @param viewW ancho del área visible en píxeles; 0 muestra todas las partes
+     * @param viewH alto del área visible en píxeles
+     */
+    void drawAt(Canvas canvas, int x, int y, int w, int h, int viewW, int viewH) {
+        if (drawing != null && drawing.canvas != canvas) {
+            makeInvisible();
+            drawing.setCanvas(canvas);
         }
-        
-        if (hasLid()){
-            getLid().makeVisible();
+        if (drawing != null && drawing.shown
+                && drawing.x == x && drawing.y == y && drawing.w == w && drawing.h == h) {
+            return;
         }
+        String tone = getColor();
+        boolean firstTime = (drawing == null);
+        if (firstTime) {
+            drawing = new Drawing();
+            drawing.setCanvas(canvas);
+        }
+        int th = thickness(h);
+        int wallsHeightPx = Math.max(0, h - th);
+
+        // Posición anterior de cada parte: la del constructor de Rectangle o la que
+        // dejó el último dibujo.
+        int lastX = firstTime ? ANCHOR_X : drawing.x;
+        int lastY = firstTime ? ANCHOR_Y : drawing.y;
+        int lastTh = firstTime ? 0 : thickness(drawing.h);
+        int lastSlabY = firstTime ? ANCHOR_Y : drawing.y + drawing.h - lastTh;
+        int lastRightX = firstTime ? ANCHOR_X : drawing.x + drawing.w - lastTh;
+
+        place(drawing.slab, lastX, lastSlabY, x, y + h - th, w, th, tone, viewW, viewH);
+        place(drawing.wallLeft, lastX, lastY, x, y, th, wallsHeightPx, tone, viewW, viewH);
+        place(drawing.wallRight, lastRightX, lastY, x + w - th, y, th, wallsHeightPx, tone, viewW, viewH);
+
+        drawing.x = x;
+        drawing.y = y;
+        drawing.w = w;
+        drawing.h = h;
+        drawing.shown = true;
+    }
+
+    /**
+     * @return true si alguna parte de la copa dibujada en (x, y, w, h) cruza el área
+     * visible de viewW x viewH píxeles.
+     */
+    boolean partsInView(int x, int y, int w, int h, int viewW, int viewH) {
+        int th = thickness(h);
+        int wallsHeightPx = Math.max(0, h - th);
+        return inView(x, y + h - th, w, th, viewW, viewH)
+            || (wallsHeightPx > 0 && (inView(x, y, th, wallsHeightPx, viewW, viewH)
+                || inView(x + w - th, y, th, wallsHeightPx, viewW, viewH)));
+    }
+
+    /**
+     * @return true si el rectángulo (x, y, w, h) cruza el área visible de viewW x viewH
+     * píxeles que empieza en (0, 0); con viewW en 0 todo cuenta como visible.
+     */
+    static boolean inView(int x, int y, int w, int h, int viewW, int viewH) {
+        if (viewW <= 0) return true;
+        return x < viewW && x + w > 0 && y < viewH && y + h > 0;
+    }
+
+    /** Grosor en píxeles de la base y las paredes cuando la copa mide h píxeles. */
+    private int thickness(int h) {
+        int cmHeight = getHeight();
+        return (cmHeight > 0) ? Math.max(1, Math.round((float) h / cmHeight)) : 1;
+    }
+
+    /**
+     * Lleva una parte de (lastX, lastY) a (x, y) con el tamaño y color dados. Se oculta
+     * antes de cambiarla, así que el canvas recibe a lo sumo un borrado y un dibujo.
+     */
+    private static void place(Rectangle rect, int lastX, int lastY, int x, int y, int w, int h,
+                              String tone, int viewW, int viewH) {
+        rect.makeInvisible();
+        rect.changeSize(h, w);
+        rect.changeColor(tone);
+        rect.moveHorizontal(x - lastX);
+        rect.moveVertical(y - lastY);
+        if (h > 0 && inView(x, y, w, h, viewW, viewH)) rect.makeVisible();
     }
 
     /**
      * Hace invisible la copa ocultando todos sus componentes.
      */
     public void makeInvisible() {
-        slabRect.makeInvisible();
-        wallLeftRect.makeInvisible();
-        wallRightRect.makeInvisible();
+        if (drawing == null || !drawing.shown) return;
+        drawing.shown = false;
+        drawing.slab.makeInvisible();
+        drawing.wallLeft.makeInvisible();
+        drawing.wallRight.makeInvisible();
     }
 
     public void setLid(Lid lid) { this.pairedCover = lid; }
@@ -166,23 +165,48 @@ public class Cup {
     public boolean hasLid() { return pairedCover != null; }
     
     public int getNumber() { return cupId; }
-    public int getHeight() { return cmHeight; }
-    public int getHeightCm() { return cmHeight; }
-    public int getInnerHeight() { return cmHeight - 1; }
-    public String getColor() { return tone; }
+    public int getHeight() { return 2 * cupId - 1; }
+    public int getHeightCm() { return getHeight(); }
+    public int getInnerHeight() { return getHeight() - 1; }
+    public String getColor() { return colorOf(cupId); }
 
     public int getWidth() { return 40 + (cupId * 5); }
     
     
-    public int getLastX() { return (lastX == null) ? 0 : lastX; }
-    public int getLastY() { return (lastY == null) ? 0 : lastY; }
-    public int getLastW() { return (lastW == null) ? 0 : lastW; }   
-    public int getLastH() { return (lastH == null) ? 0 : lastH; }
-                                                                                              
+    public int getLastX() { return (drawing == null) ? 0 : drawing.x; }
+    public int getLastY() { return (drawing == null) ? 0 : drawing.y; }
+    public int getLastW() { return (drawing == null) ? 0 : drawing.w; }
+    public int getLastH() { return (drawing == null) ? 0 : drawing.h; }
+
+    /** @return true si la copa está dibujada en el canvas. */
+    public boolean isShown() { return drawing != null && drawing.shown; }
+
+    /** @return el canvas donde se dibujó la copa, o null si es el compartido. */
+    Canvas getCanvas() { return (drawing == null) ? null : drawing.canvas; }
 
     @Override
     public String toString() {
         String lidInfo = hasLid() ? " con tapa" : " sin tapa";
-        return "Copa #" + cupId + " (altura: " + cmHeight + " cm)" + lidInfo;
+        return "Copa #" + cupId + " (altura: " + getHeight() + " cm)" + lidInfo;
+    }
+
+    /** Rectángulos y última posición dibujada (px) de una copa. */
+    private static final class Drawing {
+        private final Rectangle slab = new Rectangle();
+        private final Rectangle wallLeft = new Rectangle();
+        private final Rectangle wallRight = new Rectangle();
+        private int x;
+        private int y;
+        private int w;
+        private int h;
+        private boolean shown;
+        private Canvas canvas;
+
+        private void setCanvas(Canvas canvas) {
+            this.canvas = canvas;
+            slab.setCanvas(canvas);
+            wallLeft.setCanvas(canvas);
+            wallRight.setCanvas(canvas);
+        }
     }
 }
\ No newline at end of file
@@ -147,4 +147,39 @@ public class CupTest {
         
         c1.makeVisibleAt(0, 0, 1, 1);
     }
-}
+
+    /**
+     * Una copa sin dibujar no tiene posición y ocultarla no debe fallar;
+     * el color es la constante compartida de la paleta.
+     */
+    @Test
+    public void undrawnCup_shouldHaveNoPositionAndSharedColor() {
+        Cup c = new Cup(3);
+        c.makeInvisible();
+        assertEquals(0, c.getLastW());
+        assertEquals(0, c.getLastH());
+        assertSame(new Cup(9).getColor(), c.getColor());
+        assertSame(c.getColor(), new Lid(3).getColor());
+    }
+
+    /**
+     * Una copa con tapa se puede dibujar en un canvas fuera de pantalla, sin ventana,
+     * y la tapa queda en el mismo canvas que la copa.
+     */
+    @Test
+    public void makeVisibleAt_offscreenCanvas_shouldDrawWithoutWindow() {
+        Canvas canvas = Canvas.offscreen(300, 300);
+        Cup cup = new Cup(3);
+        Lid lid = new Lid(3);
+        cup.setLid(lid);
+        lid.attachTo(cup);
+
+        cup.makeVisibleAt(canvas, 10, 10, 50, 50);
+
+        assertTrue(cup.isShown());
+        assertTrue(lid.isShown());
+        assertSame(canvas, cup.getCanvas());
+        cup.makeInvisible();
+        assertFalse(cup.isShown());
+    }
+}
\ No newline at end of file
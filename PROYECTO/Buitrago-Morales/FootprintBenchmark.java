@@ -0,0 +1,65 @@
+/**
+ * Mide cuánta memoria ocupa cada copa y cada tapa sin dibujar.
+ *
+ * Crea un millón de instancias guardadas en un arreglo y compara la memoria usada
+ * antes y después, tras pedir varias recolecciones de basura. Cada cifra incluye la
+ * casilla del arreglo que guarda la instancia (4 bytes con referencias comprimidas).
+ * Conviene correrlo con un heap amplio y sin otros hilos trabajando, por ejemplo:
+ *
+ *     java -Xmx2g FootprintBenchmark
+ *
+ * @author Julian Morales - Sergio Buitrago
+ */
+public final class FootprintBenchmark {
+    private static final int COUNT = 1000000;
+
+    private FootprintBenchmark() {
+    }
+
+    public static void main(String[] args) {
+        int count = (args.length > 0) ? Integer.parseInt(args[0]) : COUNT;
+        System.out.println("Cup: " + cupBytes(count) + " bytes per instance");
+        System.out.println("Lid: " + lidBytes(count) + " bytes per instance");
+    }
+
+    /** @return bytes promedio por copa, con su casilla en el arreglo. */
+    static long cupBytes(int count) {
+        long before = usedMemory();
+        Cup[] cups = new Cup[count];
+        for (int i = 0; i < count; i++) {
+            cups[i] = new Cup(i % 100 + 1);
+        }
+        long after = usedMemory();
+        if (cups[count - 1] == null) throw new IllegalStateException("Cups were not kept");
+        return Math.round((double) (after - before) / count);
+    }
+
+    /** @return bytes promedio por tapa, con su casilla en el arreglo. */
+    static long lidBytes(int count) {
+        long before = usedMemory();
+        Lid[] lids = new Lid[count];
+        for (int i = 0; i < count; i++) {
+            lids[i] = new Lid(i % 100 + 1);
+        }
+        long after = usedMemory();
+        if (lids[count - 1] == null) throw new IllegalStateException("Lids were not kept");
+        return Math.round((double) (after - before) / count);
+    }
+
+    /** Memoria usada del heap después de dejar que el recolector termine. */
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+        }
+        return used;
+    }
+}
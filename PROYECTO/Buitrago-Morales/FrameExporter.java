@@ -0,0 +1,130 @@
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import javax.imageio.ImageIO;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+/**
+ * Exporta los cuadros de una sesión como una secuencia de archivos PNG, sin ventana.
+ *
+ * Quien simula entrega cada cuadro ya copiado (por ejemplo Canvas.snapshot() de un
+ * canvas fuera de pantalla) y sigue; la codificación a PNG y la escritura, por un
+ * FileChannel, se hacen en un pool de hilos. Para no acumular cuadros sin límite en
+ * memoria, a lo sumo hay 4 por hilo esperando; si la cola se llena, submit espera a
+ * que se libere un lugar.
+ *
+ * Los archivos se llaman prefijo + número de cuadro con 6 dígitos + ".png".
+ *
+ * @author Julian Morales - Sergio Buitrago
+ */
+public class FrameExporter implements AutoCloseable {
+    private final Path directory;
+    private final String prefix;
+    private final ExecutorService encoders;
+    private final Semaphore slots;
+    private int frames;
+    private volatile IOException failure;
+
+    /**
+     * Exporta con un hilo por procesador.
+     * @param directory carpeta destino; se crea si no existe.
+     * @param prefix prefijo de los nombres de archivo.
+     */
+    public FrameExporter(Path directory, String prefix) throws IOException {
+        this(directory, prefix, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param directory carpeta destino; se crea si no existe.
+     * @param prefix prefijo de los nombres de archivo.
+     * @param threads cantidad de hilos que codifican, debe ser positiva.
+     */
+    public FrameExporter(Path directory, String prefix, int threads) throws IOException {
+        if (threads <= 0) throw new IllegalArgumentException("Thread count must be positive");
+        this.directory = Files.createDirectories(directory);
+        this.prefix = prefix;
+        this.encoders = Executors.newFixedThreadPool(threads);
+        this.slots = new Semaphore(4 * threads);
+    }
+
+    /**
+     * Agrega un cuadro a la secuencia. La imagen no debe modificarse después.
+     * @param frame imagen del cuadro.
+     * @return número del cuadro.
+     * @throws IOException si falló la escritura de algún cuadro anterior.
+     */
+    public synchronized int submit(final BufferedImage frame) throws IOException {
+        if (encoders.isShutdown()) throw new IllegalStateException("Exporter is closed");
+        if (failure != null) throw failure;
+        final int index = frames++;
+        slots.acquireUninterruptibly();
+        encoders.execute(new Runnable() {
+            public void run() {
+                try {
+                    write(frame, file(index));
+                } catch (IOException e) {
+                    if (failure == null) failure = e;
+                } finally {
+                    slots.release();
+                }
+            }
+        });
+        return index;
+    }
+
+    /**
+     * Agrega como cuadro lo que muestra el canvas en este momento.
+     * @return número del cuadro.
+     */
+    public int submit(Canvas canvas) throws IOException {
+        return submit(canvas.snapshot());
+    }
+
+    /** @return archivo donde se escribe (o escribió) el cuadro con ese número. */
+    public Path file(int index) {
+        return directory.resolve(String.format("%s%06d.png", prefix, index));
+    }
+
+    /** @return cantidad de cuadros entregados hasta ahora. */
+    public synchronized int frameCount() {
+        return frames;
+    }
+
+    /**
+     * Espera a que se escriban todos los cuadros entregados y libera los hilos.
+     * @throws IOException si falló la escritura de algún cuadro.
+     */
+    public void close() throws IOException {
+        encoders.shutdown();
+        try {
+            while (!encoders.awaitTermination(1, TimeUnit.MINUTES)) { }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing frames");
+        }
+        if (failure != null) throw failure;
+    }
+
+    private static void write(BufferedImage image, Path file) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1 << 14);
+        try (ImageOutputStream out = new MemoryCacheImageOutputStream(bytes)) {
+            if (!ImageIO.write(image, "png", out)) throw new IOException("No PNG encoder available");
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) channel.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import javax.imageio.ImageIO;
+
+/**
+ * Clase de pruebas unitarias para la clase FrameExporter.
+ *
+ * @author Julian Morales - Sergio Buitrago
+ *
+ */
+public class FrameExporterTest {
+
+    /**
+     * Cada cuadro entregado queda en su propio PNG, con los mismos píxeles que
+     * tenía el canvas al entregarlo.
+     */
+    @Test
+    public void submit_shouldWriteEachFrameAsPng() throws Exception {
+        Path dir = Files.createTempDirectory("frames");
+        Canvas canvas = Canvas.offscreen(300, 300);
+        Tower t = new Tower(20, 60, canvas);
+        t.makeVisible();
+        BufferedImage[] expected = new BufferedImage[8];
+        FrameExporter exporter = new FrameExporter(dir, "step", 3);
+        for (int i = 0; i < expected.length; i++) {
+            t.pushCup(8 - i);
+            t.flushRendering();
+            expected[i] = canvas.snapshot();
+            assertEquals(i, exporter.submit(canvas));
+        }
+        exporter.close();
+
+        assertEquals(expected.length, exporter.frameCount());
+        for (int i = 0; i < expected.length; i++) {
+            File file = exporter.file(i).toFile();
+            assertEquals("step00000" + i + ".png", file.getName());
+            BufferedImage read = ImageIO.read(file);
+            assertEquals(300, read.getWidth());
+            for (int y = 0; y < 300; y += 3) {
+                for (int x = 0; x < 300; x += 3) {
+                    assertEquals(expected[i].getRGB(x, y), read.getRGB(x, y));
+                }
+            }
+            file.delete();
+        }
+        assertNotEquals(expected[0].getRGB(150, 272), expected[0].getRGB(0, 0));
+        Files.delete(dir);
+    }
+
+    /**
+     * Un exportador cerrado no acepta más cuadros.
+     */
+    @Test(expected = IllegalStateException.class)
+    public void submit_afterClose_shouldFail() throws Exception {
+        Path dir = Files.createTempDirectory("frames");
+        FrameExporter exporter = new FrameExporter(dir, "f", 1);
+        exporter.close();
+        try {
+            exporter.submit(new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB));
+        } finally {
+            Files.delete(dir);
+        }
+    }
+}
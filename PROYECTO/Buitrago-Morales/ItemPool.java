@@ -0,0 +1,73 @@
+import java.util.Arrays;
+
+/**
+ * Copas y tapas retiradas de una torre, guardadas por número para reutilizarlas.
+ *
+ * En una torre no puede haber dos copas (ni dos tapas) con el mismo número, así que
+ * basta un lugar por número: al volver a agregar la copa n se reutiliza la última
+ * copa n retirada, con sus rectángulos ya creados, en vez de crear una nueva.
+ *
+ * Solo se guardan números menores que {@link #MAX_NUMBER}: los arreglos crecen hasta el
+ * mayor número guardado, y una copa o tapa con un número enorme se descarta.
+ *
+ * El pool no limpia los objetos. Quien los saca debe desasociar la copa o la tapa
+ * de forma explícita (Tower lo hace con sus helpers, que dejan registro en la
+ * bitácora para poder deshacer).
+ *
+ * @author Julian Morales - Sergio Buitrago
+ */
+public class ItemPool {
+    /** Números desde aquí no se guardan. */
+    public static final int MAX_NUMBER = 1 << 16;
+
+    private Cup[] cups = new Cup[16];
+    private Lid[] lids = new Lid[16];
+    private int size;
+
+    /** @return una copa retirada con ese número, que sale del pool, o null. */
+    public Cup takeCup(int number) {
+        if (number < 0 || number >= cups.length || cups[number] == null) return null;
+        Cup cup = cups[number];
+        cups[number] = null;
+        size--;
+        return cup;
+    }
+
+    /** @return una tapa retirada con ese número, que sale del pool, o null. */
+    public Lid takeLid(int number) {
+        if (number < 0 || number >= lids.length || lids[number] == null) return null;
+        Lid lid = lids[number];
+        lids[number] = null;
+        size--;
+        return lid;
+    }
+
+    /**
+     * Guarda una copa retirada; reemplaza la que hubiera con el mismo número.
+     * Si el número no es menor que MAX_NUMBER, la copa no se guarda.
+     */
+    public void release(Cup cup) {
+        int number = cup.getNumber();
+        if (number < 0 || number >= MAX_NUMBER) return;
+        if (number >= cups.length) cups = Arrays.copyOf(cups, Math.max(number + 1, 2 * cups.length));
+        if (cups[number] == null) size++;
+        cups[number] = cup;
+    }
+
+    /**
+     * Guarda una tapa retirada; reemplaza la que hubiera con el mismo número.
+     * Si el número no es menor que MAX_NUMBER, la tapa no se guarda.
+     */
+    public void release(Lid lid) {
+        int number = lid.getNumber();
+        if (number < 0 || number >= MAX_NUMBER) return;
+        if (number >= lids.length) lids = Arrays.copyOf(lids, Math.max(number + 1, 2 * lids.length));
+        if (lids[number] == null) size++;
+        lids[number] = lid;
+    }
+
+    /** @return cantidad de copas y tapas guardadas. */
+    public int size() {
+        return size;
+    }
+}
@@ -0,0 +1,63 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Clase de pruebas unitarias para la clase ItemPool.
+ *
+ * @author Julian Morales - Sergio Buitrago
+ *
+ */
+public class ItemPoolTest {
+
+    /**
+     * Una copa guardada debe salir una sola vez y solo con su número.
+     */
+    @Test
+    public void takeCup_shouldReturnReleasedCupOnce() {
+        ItemPool pool = new ItemPool();
+        Cup cup = new Cup(40);
+        pool.release(cup);
+
+        assertNull(pool.takeCup(3));
+        assertEquals(1, pool.size());
+        assertSame(cup, pool.takeCup(40));
+        assertNull(pool.takeCup(40));
+        assertEquals(0, pool.size());
+    }
+
+    /**
+     * Deshacer después de reutilizar una copa debe devolverle su tapa.
+     */
+    @Test
+    public void reusedCup_undo_shouldRestoreOldLid() {
+        Tower t = new Tower(100, 80);
+        t.pushCup(3);
+        t.pushLid(3);
+        t.popCup();
+        t.pushCup(3);
+        assertEquals(0, t.lidedCupCount());
+
+        t.undo();
+        t.undo();
+        assertArrayEquals(new int[]{3}, t.lidedCups());
+        assertEquals(2, t.stackingItems().length);
+    }
+
+    /**
+     * Retirar una tapa con un número enorme no debe hacer crecer el pool hasta ese número.
+     */
+    @Test
+    public void hugeNumbers_shouldNotBePooled() {
+        ItemPool pool = new ItemPool();
+        pool.release(new Lid(500_000_000));
+        pool.release(new Cup(ItemPool.MAX_NUMBER));
+        assertEquals(0, pool.size());
+        assertNull(pool.takeLid(500_000_000));
+
+        Tower t = new Tower(10, 10);
+        t.pushLid(500_000_000);
+        t.popLid();
+        t.pushLid(500_000_000);
+        assertEquals(1, t.stackingItems().length);
+    }
+}
\ No newline at end of file
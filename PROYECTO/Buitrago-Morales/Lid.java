@@ -7,18 +7,14 @@
  */
 public class Lid {
     private int number;
-    private String color;
     private Cup associatedCup;
-    private Rectangle rect;
+    /** Parte gráfica; null hasta que la tapa se dibuja por primera vez. */
+    private Drawing drawing;
 
     /** Posición inicial del Rectangle según su constructor. */
     private static final int RECT_INIT_X = 70;
     private static final int RECT_INIT_Y = 15;
 
-    /** Posición real actual del rect en el canvas (trackeada manualmente). */
-    private int rectX = RECT_INIT_X;
-    private int rectY = RECT_INIT_Y;
-
     /**
      * Crea una tapa con el número dado.
      * @param number número identificador de la tapa, debe ser mayor a 0.
@@ -26,21 +22,13 @@ public class Lid {
     public Lid(int number) {
         if (number <= 0) throw new IllegalArgumentException("Lid number must be positive");
         this.number = number;
-        this.color  = generateColor(number);
         this.associatedCup = null;
-        this.rect = new Rectangle();
-        this.rectX = RECT_INIT_X;
-        this.rectY = RECT_INIT_Y;
     }
 
-    /**
-     * Genera un color basado en el número de la tapa.
-     * @param number número de la tapa.
-     * @return color asignado.
-     */
-    private String generateColor(int number) {
-        String[] colors = {"red", "blue", "green", "yellow", "magenta", "black"};
-        return colors[(number - 1) % colors.length];
+    /** @return la parte gráfica de la tapa, creándola la primera vez que se dibuja. */
+    private Drawing drawing() {
+        if (drawing == null) drawing = new Drawing();
+        return drawing;
     }
 
     /**
@@ -48,12 +36,16 @@ public class Lid {
      * @param cup la copa a la que se asocia la tapa.
      */
     public void attachTo(Cup cup) {
+        link(cup);
+        snapToCup();
+    }
+
+    /** Igual a attachTo, pero sin dibujar. */
+    void link(Cup cup) {
         this.associatedCup = cup;
         if (cup != null) {
-            this.color  = cup.getColor();
             this.number = cup.getNumber();
         }
-        snapToCup();
     }
 
     /**
@@ -63,28 +55,54 @@ public class Lid {
      */
     public void snapToCup() {
         if (associatedCup == null) return;
+        drawOn(associatedCup, 0, 0);
+    }
 
-        int cupX = associatedCup.getLastX();
-        int cupY = associatedCup.getLastY();
-        int cupW = associatedCup.getLastW();
-        int cupH = associatedCup.getLastH();
+    /**
+     * Dibuja la tapa sobre el borde superior de la copa dada, sin mirar su asociación.
+     * Tower lo usa al dibujar fuera de su candado, donde la asociación puede cambiar.
+     * La tapa solo se muestra si cruza el área visible.
+     * @param viewW ancho del área visible en píxeles; 0 la muestra siempre.
+     * @param viewH alto del área visible en píxeles.
+     */
+    void drawOn(Cup cup, int viewW, int viewH) {
+        int cupX = cup.getLastX();
+        int cupY = cup.getLastY();
+        int cupW = cup.getLastW();
+        int cupH = cup.getLastH();
 
         if (cupW <= 0 || cupH <= 0) return;
+        // Se dibuja en el mismo canvas que su copa.
+        Drawing d = drawing();
+        d.rect.setCanvas(cup.getCanvas());
 
         int targetW  = cupW;
-        int lidThick = Math.max(3, cupH / 5);
+        int lidThick = thicknessOn(cupH);
         int targetX  = cupX;
         int targetY  = cupY;
 
-        rect.changeColor(associatedCup.getColor());
+        if (d.shown && d.x == targetX && d.y == targetY && d.w == targetW && d.h == lidThick) return;
+
+        // Se oculta antes de cambiarla: el canvas recibe a lo sumo un borrado y un dibujo.
+        Rectangle rect = d.rect;
+        rect.makeInvisible();
+        rect.changeColor(cup.getColor());
         rect.changeSize(lidThick, targetW);
-        rect.moveHorizontal(targetX - rectX);
-        rect.moveVertical(targetY - rectY);
+        rect.moveHorizontal(targetX - d.x);
+        rect.moveVertical(targetY - d.y);
 
-        rectX = targetX;
-        rectY = targetY;
+        d.x = targetX;
+        d.y = targetY;
+        d.w = targetW;
+        d.h = lidThick;
+        d.shown = true;
 
-        rect.makeVisible();
+        if (Cup.inView(targetX, targetY, targetW, lidThick, viewW, viewH)) rect.makeVisible();
+    }
+
+    /** @return grosor en píxeles de la tapa sobre una copa de cupH píxeles de alto. */
+    static int thicknessOn(int cupH) {
+        return Math.max(3, cupH / 5);
     }
 
     /**
@@ -92,10 +110,19 @@ public class Lid {
      * Si no tiene copa, se dibuja de forma independiente.
      */
     public void makeVisible() {
+        makeVisible(null);
+    }
+
+    /**
+     * Igual a makeVisible(), pero una tapa sin copa se dibuja en el canvas dado.
+     * Una tapa con copa siempre se dibuja en el canvas de su copa.
+     * @param canvas Canvas donde dibujar, o null para el compartido.
+     */
+    public void makeVisible(Canvas canvas) {
         if (associatedCup != null) {
             snapToCup();
         } else {
-            drawStandalone();
+            drawStandalone(canvas);
         }
     }
 
@@ -103,12 +130,20 @@ public class Lid {
      * Dibuja la tapa de forma independiente cuando no tiene copa asociada.
      * Usa el número de la tapa para determinar su ancho.
      */
-    private void drawStandalone() {
+    void drawStandalone(Canvas canvas) {
+        Drawing d = drawing();
+        d.rect.setCanvas(canvas);
         int widthPx  = number * 10;
         int heightPx = 3;
-        rect.changeColor(color);
+        // Suelta no se mueve, así que si ya está dibujada con ese tamaño no hay nada que hacer.
+        if (d.shown && d.w == widthPx && d.h == heightPx) return;
+        Rectangle rect = d.rect;
+        rect.changeColor(Cup.colorOf(number));
         rect.changeSize(heightPx, widthPx);
         rect.makeVisible();
+        d.w = widthPx;
+        d.h = heightPx;
+        d.shown = true;
     }
 
     /**
@@ -116,7 +151,9 @@ public class Lid {
      * No modifica la posición trackeada del rect.
      */
     public void makeInvisible() {
-        rect.makeInvisible();
+        if (drawing == null || !drawing.shown) return;
+        drawing.shown = false;
+        drawing.rect.makeInvisible();
     }
 
     // ---- Getters ----
@@ -131,11 +168,14 @@ public class Lid {
     public int getHeightCm()      { return 1; }
 
     /** @return color de la tapa; si tiene copa, devuelve el color de la copa. */
-    public String getColor()      { return (associatedCup != null) ? associatedCup.getColor() : color; }
+    public String getColor()      { return (associatedCup != null) ? associatedCup.getColor() : Cup.colorOf(number); }
 
     /** @return la copa a la que está asociada, o null si no tiene. */
     public Cup getAssociatedCup() { return associatedCup; }
 
+    /** @return true si la tapa está dibujada en el canvas. */
+    public boolean isShown()      { return drawing != null && drawing.shown; }
+
     /** @return true si la tapa está asociada a una copa. */
     public boolean isOnCup()      { return associatedCup != null; }
 
@@ -144,4 +184,14 @@ public class Lid {
             ? " (sobre copa #" + associatedCup.getNumber() + ")"
             : " (sin copa)");
     }
+
+    /** Rectángulo, posición real actual (trackeada manualmente) y último tamaño dibujado. */
+    private static final class Drawing {
+        private final Rectangle rect = new Rectangle();
+        private int x = RECT_INIT_X;
+        private int y = RECT_INIT_Y;
+        private int w;
+        private int h;
+        private boolean shown;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,616 @@
+/**
+ * Resumen inmutable del efecto que tiene un tramo de la torre sobre el algoritmo
+ * de anidamiento (el mismo que usan {@link TowerLayout} al ubicar los elementos y el
+ * índice de {@link PersistentTower}).
+ *
+ * El algoritmo recorre los elementos con tres datos: la altura acumulada de los
+ * grupos cerrados, el tope del grupo actual y la pila de anchos internos. Un tramo
+ * solo "mira" la pila que recibe en los momentos en que su propia pila local está
+ * vacía (puntos de sondeo); entre dos sondeos todo depende únicamente de sus
+ * propios elementos. Por eso el resumen guarda:
+ * <ul>
+ *   <li>los sondeos: cuántas veces se desapiló la pila recibida antes de cada uno,
+ *       el ancho mínimo que exige (0 si nunca puede chocar) y cuánto sube el grupo
+ *       según la profundidad a la que queda;</li>
+ *   <li>si el tramo se reinicia por sí solo, lo que acumula después de ese reinicio;</li>
+ *   <li>la pila local final y cuántos elementos consume de la pila recibida.</li>
+ * </ul>
+ *
+ * Los resúmenes se pueden encadenar con {@link #then(NestingSummary)}, lo que
+ * permite guardarlos en los nodos de un árbol o calcularlos por partes. Tanto la
+ * pila local como la secuencia de sondeos son persistentes: al encadenar se
+ * comparten las de los dos tramos en vez de copiarlas. Los sondeos van en un árbol
+ * balanceado que guarda, por subárbol, el mayor ancho exigido y los mayores topes,
+ * así que el efecto de un tramo de sondeos se calcula sin recorrerlos, y el primero
+ * que choca con la pila recibida se busca descartando los subárboles que no pueden
+ * chocar (la pila recibida crece estrictamente hacia abajo). Encadenar cuesta
+ * O(log² n) cuando los sondeos que se revisan comparten el nivel de la pila
+ * recibida, como en copa 1, tapa 1, copa 2, tapa 2, ...; la búsqueda solo puede
+ * bajar por más ramas cuando un mismo tramo exige anchos cercanos al límite en
+ * muchos niveles distintos.
+ *
+ * @author Julian Morales - Sergio Buitrago
+ */
+public final class NestingSummary {
+    private static final int WALL_CM = 1;
+    private static final int[] NONE = new int[0];
+
+    // Cada sondeo ocupa PROBE enteros seguidos en una ProbeList:
+    // desapilados previos, ancho exigido, tope relativo a la profundidad y tope al fondo.
+    private static final int J = 0;
+    private static final int NEED = 1;
+    private static final int DEEP = 2;
+    private static final int FLAT = 3;
+    private static final int PROBE = 4;
+
+    /** Resumen de un tramo vacío. */
+    public static final NestingSummary EMPTY =
+        new NestingSummary(null, false, 0, 0, null, 0);
+
+    private final Probes probes;
+    private final boolean reset;
+    private final int resetAcc;
+    private final int resetTop;
+    private final Levels stack;
+    private final int pops;
+    private final int group;
+    private final int height;
+
+    private NestingSummary(Probes probes, boolean reset, int resetAcc, int resetTop,
+                           Levels stack, int pops) {
+        this.probes = probes;
+        this.reset = reset;
+        this.resetAcc = resetAcc;
+        this.resetTop = resetTop;
+        this.stack = stack;
+        this.pops = reset ? 0 : pops;
+
+        int first = (probes == null) ? 0 : probes.maxFlat;
+        this.group = reset ? resetTop : first;
+        this.height = reset ? first + resetAcc + resetTop : first;
+    }
+
+    /**
+     * Resumen de un único elemento.
+     * @param heightCm altura del elemento en cm.
+     * @param cup true si es una copa, false si es una tapa.
+     */
+    public static NestingSummary of(int heightCm, boolean cup) {
+        Builder b = new Builder();
+        b.add(heightCm, cup);
+        return b.build();
+    }
+
+    /** @return altura efectiva del tramo si se apila sobre una base vacía. */
+    public int height() {
+        return height;
+    }
+
+    /**
+     * Altura que tendría el tramo, sobre una base vacía, con un elemento más encima.
+     * No crea objetos.
+     * @param heightCm altura del elemento agregado en cm.
+     */
+    public int heightWith(int heightCm) {
+        int size = Levels.size(stack);
+        if (size > 0 && heightCm > stack.top) return height + heightCm;
+        return height - group + Math.max(group, size * WALL_CM + heightCm);
+    }
+
+    /** Un tramo sin elementos no tiene sondeos ni reinicios. */
+    private boolean isEmpty() {
+        return probes == null && !reset;
+    }
+
+    /**
+     * Encadena este tramo con el que va inmediatamente encima.
+     * @param next tramo siguiente.
+     * @return resumen del tramo combinado.
+     */
+    public NestingSummary then(NestingSummary next) {
+        if (next.isEmpty()) return this;
+        if (isEmpty()) return next;
+        int local = Levels.size(stack);
+        Probes later = next.probes;
+        int count = Probes.count(later);
+        // Primer sondeo de 'next' que choca con la pila de este tramo (o count).
+        int clash = Probes.firstClash(later, 0, local, stack, null);
+
+        if (reset) {
+            // La pila que recibe 'next' es conocida: se aplica directamente.
+            int acc = resetAcc;
+            int top = Math.max(resetTop, Probes.reach(later, 0, clash, local));
+            if (clash < count) {
+                acc += top;
+                top = Probes.maxFlat(later, clash, count);
+            }
+            Levels s;
+            if (next.reset) {
+                acc += top + next.resetAcc;
+                top = next.resetTop;
+                s = next.stack;
+            } else if (clash < count) {
+                s = next.stack;
+            } else {
+                s = Levels.concat(Levels.prefix(stack, Math.max(0, local - next.pops)), next.stack);
+            }
+            return new NestingSummary(probes, true, acc, top, s, 0);
+        }
+
+        // Los sondeos que caen sobre la pila de este tramo ya no dependen de la recibida:
+        // se juntan en uno solo, que no exige nada.
+        int onLocal = Probes.countBelow(later, 0, local);
+        int landed = Math.min(onLocal, clash);
+        Probes out = probes;
+        if (landed > 0) {
+            int deep = local * WALL_CM + Probes.maxLift(later, 0, 0, landed);
+            int flat = Math.max(deep, Probes.maxFlat(later, 0, landed));
+            out = Probes.append(out, Probes.leaf(pops, 0, deep, flat));
+        }
+        if (clash < count) {
+            // El sondeo choca con la pila de este tramo: reinicio conocido.
+            int top = Probes.maxFlat(later, clash, count);
+            if (next.reset) return new NestingSummary(out, true, top + next.resetAcc, next.resetTop, next.stack, 0);
+            return new NestingSummary(out, true, 0, top, next.stack, 0);
+        }
+        // Los demás siguen mirando la pila recibida, más abajo.
+        out = Probes.append(out, Probes.shifted(Probes.suffix(later, onLocal), pops - local));
+
+        if (next.reset) {
+            return new NestingSummary(out, true, next.resetAcc, next.resetTop, next.stack, 0);
+        }
+        if (next.pops <= local) {
+            Levels joined = Levels.concat(Levels.prefix(stack, local - next.pops), next.stack);
+            return new NestingSummary(out, false, 0, 0, joined, pops);
+        }
+        return new NestingSummary(out, false, 0, 0, next.stack, pops + next.pops - local);
+    }
+
+    /**
+     * Aplica el tramo sobre un estado concreto del algoritmo.
+     * @param c estado que se actualiza en el lugar.
+     */
+    public void applyTo(Cursor c) {
+        int below = c.size;
+        int count = Probes.count(probes);
+        int clash = Probes.firstClash(probes, 0, below, null, c.stack);
+        c.group = Math.max(c.group, Probes.reach(probes, 0, clash, below));
+        if (clash < count) {
+            c.acc += c.group;
+            c.group = Probes.maxFlat(probes, clash, count);
+        }
+
+        if (reset) {
+            c.acc += c.group + resetAcc;
+            c.group = resetTop;
+            c.size = 0;
+        } else if (clash < count) {
+            c.size = 0;
+        } else {
+            c.size = Math.max(0, below - pops);
+        }
+        c.pushAll(stack);
+    }
+
+    /**
+     * Estado mutable del algoritmo: altura acumulada, tope del grupo actual
+     * y pila de anchos internos (fondo en la posición 0).
+     */
+    public static final class Cursor {
+        int acc;
+        int group;
+        int[] stack;
+        int size;
+
+        public Cursor() {
+            this.stack = new int[16];
+        }
+
+        /** @return altura efectiva del estado actual. */
+        public int height() {
+            return acc + group;
+        }
+
+        private void pushAll(Levels values) {
+            int n = Levels.size(values);
+            if (size + n > stack.length) {
+                stack = java.util.Arrays.copyOf(stack, Math.max(2 * stack.length, size + n));
+            }
+            size = Levels.copy(values, stack, size);
+        }
+    }
+
+    /**
+     * Construye el resumen de un tramo agregando sus elementos de abajo hacia arriba.
+     */
+    public static final class Builder {
+        private int[] stack = new int[16];
+        private int size;
+        private int pops;
+        private final ProbeList probes = new ProbeList(NONE, 0, 4);
+        // Distancia (en desapilados) entre el tramo actual y el sondeo donde se fundió.
+        private int shift;
+        private boolean reset;
+        private int resetAcc;
+        private int resetTop;
+
+        /**
+         * Agrega el siguiente elemento del tramo.
+         * @param heightCm altura del elemento en cm.
+         * @param cup true si es una copa, false si es una tapa.
+         */
+        public Builder add(int heightCm, boolean cup) {
+            if (!reset) {
+                if (size == 0) {
+                    shift = probes.add(pops, heightCm, 0, 0);
+                } else if (heightCm > stack[size - 1]) {
+                    reset = true;
+                    size = 0;
+                }
+            }
+            if (reset) {
+                if (size > 0 && heightCm > stack[size - 1]) {
+                    resetAcc += resetTop;
+                    resetTop = 0;
+                    size = 0;
+                }
+                resetTop = Math.max(resetTop, size * WALL_CM + heightCm);
+            } else {
+                probes.raiseLast(size * WALL_CM + heightCm, shift);
+            }
+
+            if (cup) {
+                if (size == stack.length) stack = java.util.Arrays.copyOf(stack, 2 * size);
+                stack[size++] = Math.max(0, heightCm - 2 * WALL_CM);
+            } else if (size > 0) {
+                size--;
+            } else if (!reset) {
+                pops++;
+            }
+            return this;
+        }
+
+        /** @return el resumen de los elementos agregados hasta ahora. */
+        public NestingSummary build() {
+            if (probes.count == 0 && !reset) return EMPTY;
+            return new NestingSummary(probes.toProbes(), reset, resetAcc, resetTop, Levels.of(stack, 0, size), pops);
+        }
+    }
+
+    /** Lista de sondeos en construcción, que funde cada sondeo nuevo cuando puede. */
+    private static final class ProbeList {
+        private int[] data;
+        private int count;
+
+        ProbeList(int[] initial, int count, int capacity) {
+            this.data = java.util.Arrays.copyOf(initial, Math.max(1, capacity) * PROBE);
+            this.count = count;
+        }
+
+        /**
+         * Agrega un sondeo. Si nunca puede chocar cuando el anterior no chocó (no exige
+         * nada, o exige menos en la misma posición), se funde con el anterior.
+         * @return cuántos desapilados hay entre el sondeo y aquel con el que quedó.
+         */
+        int add(int j, int need, int deep, int flat) {
+            // Los anchos de la pila recibida son distintos y crecen hacia abajo: el que
+            // está j niveles bajo el tope mide al menos j, así que need <= j nunca choca.
+            if (need <= j) need = 0;
+            if (count > 0) {
+                int b = (count - 1) * PROBE;
+                int lastJ = data[b + J];
+                if (need == 0 || (lastJ == j && need <= data[b + NEED])) {
+                    int shift = j - lastJ;
+                    data[b + DEEP] = Math.max(data[b + DEEP], deep - shift * WALL_CM);
+                    data[b + FLAT] = Math.max(data[b + FLAT], flat);
+                    return shift;
+                }
+            }
+            if ((count + 1) * PROBE > data.length) data = java.util.Arrays.copyOf(data, 2 * data.length);
+            int b = count * PROBE;
+            data[b + J] = j;
+            data[b + NEED] = need;
+            data[b + DEEP] = deep;
+            data[b + FLAT] = flat;
+            count++;
+            return 0;
+        }
+
+        /** Sube el último sondeo con un elemento a 'top' cm, a 'shift' desapilados de él. */
+        void raiseLast(int top, int shift) {
+            int b = (count - 1) * PROBE;
+            data[b + DEEP] = Math.max(data[b + DEEP], top - shift * WALL_CM);
+            data[b + FLAT] = Math.max(data[b + FLAT], top);
+        }
+
+        /** @return los sondeos como secuencia persistente balanceada. */
+        Probes toProbes() {
+            return Probes.of(data, 0, count);
+        }
+    }
+
+    /**
+     * Secuencia persistente de sondeos: un árbol AVL con los sondeos en las hojas, en
+     * orden. null es la secuencia vacía. Los desapilados previos (J) no bajan a lo
+     * largo de la secuencia; cada nodo suma 'shift' a los J de todo su subárbol, así
+     * que correr una secuencia entera cuesta O(1). Cada nodo guarda, ya con su shift,
+     * el primer y el último J, el mayor ancho exigido, el mayor DEEP - J * WALL_CM y
+     * el mayor FLAT de su subárbol; en una hoja esos son los datos del sondeo.
+     */
+    private static final class Probes {
+        private final Probes left;
+        private final Probes right;
+        private final int shift;
+        private final int count;
+        private final int depth;
+        private final int firstJ;
+        private final int lastJ;
+        private final int maxNeed;
+        private final int maxLift;
+        private final int maxFlat;
+
+        /** Hoja. */
+        private Probes(int j, int need, int deep, int flat) {
+            this.left = null;
+            this.right = null;
+            this.shift = 0;
+            this.count = 1;
+            this.depth = 1;
+            this.firstJ = j;
+            this.lastJ = j;
+            this.maxNeed = need;
+            this.maxLift = deep - j * WALL_CM;
+            this.maxFlat = flat;
+        }
+
+        /** Nodo interno; left y right son no nulos. */
+        private Probes(Probes left, Probes right, int shift) {
+            this.left = left;
+            this.right = right;
+            this.shift = shift;
+            this.count = left.count + right.count;
+            this.depth = Math.max(left.depth, right.depth) + 1;
+            this.firstJ = left.firstJ + shift;
+            this.lastJ = right.lastJ + shift;
+            this.maxNeed = Math.max(left.maxNeed, right.maxNeed);
+            this.maxLift = Math.max(left.maxLift, right.maxLift) - shift * WALL_CM;
+            this.maxFlat = Math.max(left.maxFlat, right.maxFlat);
+        }
+
+        static Probes leaf(int j, int need, int deep, int flat) {
+            return new Probes(j, need, deep, flat);
+        }
+
+        static int count(Probes p) {
+            return p == null ? 0 : p.count;
+        }
+
+        /** DEEP de una hoja. */
+        private int deep() {
+            return maxLift + firstJ * WALL_CM;
+        }
+
+        /** @return secuencia balanceada con los sondeos data[from, to) de una ProbeList. */
+        static Probes of(int[] data, int from, int to) {
+            if (from >= to) return null;
+            if (to - from == 1) {
+                int b = from * PROBE;
+                return leaf(data[b + J], data[b + NEED], data[b + DEEP], data[b + FLAT]);
+            }
+            int mid = (from + to) >>> 1;
+            return new Probes(of(data, from, mid), of(data, mid, to), 0);
+        }
+
+        /** @return la misma secuencia con 'd' más en todos sus J. */
+        static Probes shifted(Probes p, int d) {
+            if (p == null || d == 0) return p;
+            if (p.left == null) return leaf(p.firstJ + d, p.maxNeed, p.deep(), p.maxFlat);
+            return new Probes(p.left, p.right, p.shift + d);
+        }
+
+        /**
+         * @return a seguida de b. Si b es un solo sondeo que no puede chocar cuando el
+         * último de a no chocó, se funde con él como en ProbeList.add; si no, se unen.
+         */
+        static Probes append(Probes a, Probes b) {
+            if (a == null) return b;
+            if (b == null || b.count > 1) return join(a, b);
+            int j = b.firstJ;
+            int need = (b.maxNeed <= j) ? 0 : b.maxNeed;
+            if (need == 0 || (a.lastJ == j && need <= lastNeed(a))) {
+                return mergeLast(a, j, b.deep(), b.maxFlat);
+            }
+            return join(a, b);
+        }
+
+        private static int lastNeed(Probes p) {
+            while (p.left != null) p = p.right;
+            return p.maxNeed;
+        }
+
+        /** Funde en el último sondeo de p uno con ese J (en el marco de p), DEEP y FLAT. */
+        private static Probes mergeLast(Probes p, int j, int deep, int flat) {
+            if (p.left != null) return new Probes(p.left, mergeLast(p.right, j - p.shift, deep, flat), p.shift);
+            int lastJ = p.firstJ;
+            return leaf(lastJ, p.maxNeed, Math.max(p.deep(), deep - (j - lastJ) * WALL_CM), Math.max(p.maxFlat, flat));
+        }
+
+        /** @return a seguida de b, balanceada; crea O(|profundidad(a) - profundidad(b)| + 1) nodos. */
+        static Probes join(Probes a, Probes b) {
+            if (a == null) return b;
+            if (b == null) return a;
+            if (a.depth > b.depth + 1) {
+                return balance(shifted(a.left, a.shift), join(shifted(a.right, a.shift), b));
+            }
+            if (b.depth > a.depth + 1) {
+                return balance(join(a, shifted(b.left, b.shift)), shifted(b.right, b.shift));
+            }
+            return new Probes(a, b, 0);
+        }
+
+        /** Une l y r, cuyas profundidades difieren a lo sumo en 2, con una rotación si hace falta. */
+        private static Probes balance(Probes l, Probes r) {
+            if (l.depth > r.depth + 1) {
+                Probes ll = shifted(l.left, l.shift);
+                Probes lr = shifted(l.right, l.shift);
+                if (ll.depth >= lr.depth) return new Probes(ll, new Probes(lr, r, 0), 0);
+                return new Probes(new Probes(ll, shifted(lr.left, lr.shift), 0),
+                                  new Probes(shifted(lr.right, lr.shift), r, 0), 0);
+            }
+            if (r.depth > l.depth + 1) {
+                Probes rl = shifted(r.left, r.shift);
+                Probes rr = shifted(r.right, r.shift);
+                if (rr.depth >= rl.depth) return new Probes(new Probes(l, rl, 0), rr, 0);
+                return new Probes(new Probes(l, shifted(rl.left, rl.shift), 0),
+                                  new Probes(shifted(rl.right, rl.shift), rr, 0), 0);
+            }
+            return new Probes(l, r, 0);
+        }
+
+        /** @return los sondeos desde la posición k en adelante. */
+        static Probes suffix(Probes p, int k) {
+            if (k <= 0) return p;
+            if (p == null || k >= p.count) return null;
+            if (k >= p.left.count) return shifted(suffix(p.right, k - p.left.count), p.shift);
+            return join(shifted(suffix(p.left, k), p.shift), shifted(p.right, p.shift));
+        }
+
+        /** @return cuántos sondeos tienen J + off menor que 'bound' (forman un prefijo). */
+        static int countBelow(Probes p, int off, int bound) {
+            if (p == null || p.firstJ + off >= bound) return 0;
+            if (p.lastJ + off < bound) return p.count;
+            int inner = off + p.shift;
+            return countBelow(p.left, inner, bound) + countBelow(p.right, inner, bound);
+        }
+
+        /**
+         * Busca el primer sondeo que choca con una pila recibida de 'below' niveles: el
+         * que cae sobre ella (J + off menor que below) y exige más que el ancho que está
+         * J niveles debajo del tope. El ancho se lee de 'levels', o de stack[0, below)
+         * (fondo primero) si levels es null. Como la pila crece hacia abajo, un subárbol
+         * que no exige más que el ancho de su primer J no puede chocar.
+         * @return posición del sondeo, o count(p) si ninguno choca.
+         */
+        static int firstClash(Probes p, int off, int below, Levels levels, int[] stack) {
+            if (p == null) return 0;
+            int first = p.firstJ + off;
+            if (first >= below || p.maxNeed <= width(first, below, levels, stack)) return p.count;
+            if (p.left == null) return 0;
+            int inner = off + p.shift;
+            int k = firstClash(p.left, inner, below, levels, stack);
+            if (k < p.left.count) return k;
+            return p.left.count + firstClash(p.right, inner, below, levels, stack);
+        }
+
+        private static int width(int j, int below, Levels levels, int[] stack) {
+            return (levels != null) ? levels.fromTop(j) : stack[below - 1 - j];
+        }
+
+        /**
+         * Lo más alto que suben el grupo los sondeos [from, to) con una pila recibida de
+         * 'below' niveles que no se vació: max((below - J) * WALL_CM + DEEP, FLAT); 0 si
+         * no hay.
+         */
+        static int reach(Probes p, int from, int to, int below) {
+            if (from >= to) return 0;
+            return Math.max(0, Math.max(below * WALL_CM + maxLift(p, 0, from, to), maxFlat(p, from, to)));
+        }
+
+        /** @return el mayor DEEP - (J + off) * WALL_CM de los sondeos [from, to). */
+        static int maxLift(Probes p, int off, int from, int to) {
+            if (p == null || from >= to || to <= 0 || from >= p.count) return Integer.MIN_VALUE / 2;
+            if (from <= 0 && to >= p.count) return p.maxLift - off * WALL_CM;
+            int inner = off + p.shift;
+            int ls = p.left.count;
+            return Math.max(maxLift(p.left, inner, from, to), maxLift(p.right, inner, from - ls, to - ls));
+        }
+
+        /** @return el mayor FLAT de los sondeos [from, to); 0 si no hay. */
+        static int maxFlat(Probes p, int from, int to) {
+            if (p == null || from >= to || to <= 0 || from >= p.count) return 0;
+            if (from <= 0 && to >= p.count) return p.maxFlat;
+            int ls = p.left.count;
+            return Math.max(maxFlat(p.left, from, to), maxFlat(p.right, from - ls, to - ls));
+        }
+    }
+
+    /**
+     * Pila persistente de anchos internos: un árbol de concatenaciones con los
+     * anchos en las hojas (fondo a la izquierda). null es la pila vacía. Concatenar y
+     * quedarse con el fondo crean O(profundidad) nodos y comparten el resto.
+     */
+    private static final class Levels {
+        private final Levels left;
+        private final Levels right;
+        private final int value;
+        private final int size;
+        private final int top;
+
+        private Levels(int value) {
+            this.left = null;
+            this.right = null;
+            this.value = value;
+            this.size = 1;
+            this.top = value;
+        }
+
+        private Levels(Levels left, Levels right) {
+            this.left = left;
+            this.right = right;
+            this.value = 0;
+            this.size = left.size + right.size;
+            this.top = right.top;
+        }
+
+        static int size(Levels s) {
+            return s == null ? 0 : s.size;
+        }
+
+        /** @return pila balanceada con values[from, to), fondo primero. */
+        static Levels of(int[] values, int from, int to) {
+            if (from >= to) return null;
+            if (to - from == 1) return new Levels(values[from]);
+            int mid = (from + to) >>> 1;
+            return new Levels(of(values, from, mid), of(values, mid, to));
+        }
+
+        static Levels concat(Levels a, Levels b) {
+            if (a == null) return b;
+            if (b == null) return a;
+            return new Levels(a, b);
+        }
+
+        /** @return los k niveles del fondo de s. */
+        static Levels prefix(Levels s, int k) {
+            if (k <= 0) return null;
+            if (k >= s.size) return s;
+            if (k <= s.left.size) return prefix(s.left, k);
+            return concat(s.left, prefix(s.right, k - s.left.size));
+        }
+
+        /** @return el ancho que está j niveles debajo del tope. */
+        int fromTop(int j) {
+            Levels s = this;
+            int i = size - 1 - j;
+            while (s.left != null) {
+                if (i < s.left.size) {
+                    s = s.left;
+                } else {
+                    i -= s.left.size;
+                    s = s.right;
+                }
+            }
+            return s.value;
+        }
+
+        /** Copia los anchos, fondo primero, a partir de out[at]; devuelve la posición siguiente. */
+        static int copy(Levels s, int[] out, int at) {
+            if (s == null) return at;
+            if (s.left == null) {
+                out[at] = s.value;
+                return at + 1;
+            }
+            return copy(s.right, out, copy(s.left, out, at));
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/**
+ * Recorrido del algoritmo de anidamiento, elemento por elemento y en cm.
+ *
+ * Guarda la altura acumulada de los grupos cerrados, el tope del grupo actual y la
+ * pila de niveles abiertos (el ancho interno de cada copa abierta). Cada elemento se
+ * ubica con {@link #place(int)}: si no cabe en el nivel abierto, el grupo se cierra y
+ * empieza uno nuevo encima. Después una copa abre un nivel y una tapa cierra uno.
+ *
+ * La pila es una lista enlazada de nodos guardada en arreglos: quien abre un nivel
+ * elige el número de nodo. Con {@link #add(int, boolean)} el nodo es la profundidad,
+ * así que los arreglos se reutilizan y no crecen con la cantidad de elementos (lo
+ * usan TowerSvg y las consultas hipotéticas de Tower). TowerLayout usa como nodo la
+ * posición del elemento: los niveles viejos no se pisan y el recorrido se puede
+ * retomar desde cualquier posición con {@link #restore(long, long, int, int)}.
+ *
+ * @author Julian Morales - Sergio Buitrago
+ */
+public final class NestingWalker {
+    private static final int WALL_CM = 1;
+
+    private long acc;
+    private long group;
+    private int depth;
+    private int top = -1;
+    private int[] inner = new int[16];
+    private int[] below = new int[16];
+
+    /** Vuelve al estado de una torre vacía. */
+    public void reset() {
+        restore(0, 0, -1, 0);
+    }
+
+    /**
+     * Retoma un recorrido en un estado guardado antes.
+     * @param acc altura acumulada de los grupos cerrados.
+     * @param group tope del grupo actual.
+     * @param top nodo del nivel abierto de arriba, o -1 si no hay.
+     * @param depth cantidad de niveles abiertos.
+     */
+    public void restore(long acc, long group, int top, int depth) {
+        this.acc = acc;
+        this.group = group;
+        this.top = top;
+        this.depth = depth;
+    }
+
+    /**
+     * Ubica el siguiente elemento sin abrir ni cerrar niveles.
+     * @param heightCm altura del elemento en cm.
+     * @return true si el elemento no cupo en el nivel abierto y empezó un grupo nuevo.
+     */
+    public boolean place(int heightCm) {
+        boolean restart = depth > 0 && heightCm > inner[top];
+        if (restart) {
+            acc += group;
+            group = 0;
+            depth = 0;
+            top = -1;
+        }
+        group = Math.max(group, (long) depth * WALL_CM + heightCm);
+        return restart;
+    }
+
+    /**
+     * Abre el nivel de la copa recién ubicada.
+     * @param node número del nodo del nivel; no debe estar en la pila.
+     * @param heightCm altura de la copa en cm.
+     */
+    public void open(int node, int heightCm) {
+        if (node >= inner.length) {
+            int cap = Math.max(node + 1, 2 * inner.length);
+            inner = java.util.Arrays.copyOf(inner, cap);
+            below = java.util.Arrays.copyOf(below, cap);
+        }
+        inner[node] = Math.max(0, heightCm - 2 * WALL_CM);
+        below[node] = top;
+        top = node;
+        depth++;
+    }
+
+    /** Cierra el nivel de arriba, si hay alguno (una tapa). */
+    public void close() {
+        if (depth == 0) return;
+        top = below[top];
+        depth--;
+    }
+
+    /**
+     * Ubica un elemento y abre o cierra su nivel, usando la profundidad como nodo.
+     * @return true si el elemento empezó un grupo nuevo.
+     */
+    public boolean add(int heightCm, boolean cup) {
+        boolean restart = place(heightCm);
+        if (cup) open(depth, heightCm);
+        else close();
+        return restart;
+    }
+
+    /** @return altura acumulada de los grupos cerrados. */
+    public long acc() {
+        return acc;
+    }
+
+    /** @return tope del grupo actual. */
+    public long group() {
+        return group;
+    }
+
+    /** @return altura efectiva de lo recorrido. */
+    public long height() {
+        return acc + group;
+    }
+
+    /** @return cantidad de niveles abiertos; un elemento ubicado queda a esa profundidad en cm. */
+    public int depth() {
+        return depth;
+    }
+
+    /** @return nodo del nivel abierto de arriba, o -1 si no hay. */
+    public int top() {
+        return top;
+    }
+
+    /** @return nodo del nivel que está debajo del nodo dado, o -1 si es el del fondo. */
+    public int below(int node) {
+        return below[node];
+    }
+}
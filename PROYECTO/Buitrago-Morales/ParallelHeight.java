@@ -0,0 +1,85 @@
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Cálculo en paralelo de la altura efectiva de torres muy grandes.
+ *
+ * La secuencia se parte en bloques; cada bloque se resume en paralelo con un
+ * {@link NestingSummary} (sondeos sobre la pila que recibe, reinicios propios y
+ * pila de salida) y luego los resúmenes se aplican en orden sobre un único estado.
+ * El resultado es exactamente el mismo del recorrido secuencial.
+ *
+ * @author Julian Morales - Sergio Buitrago
+ */
+public class ParallelHeight {
+    /** Cantidad de elementos por bloque cuando no se indica otra. */
+    public static final int DEFAULT_CHUNK = 1 << 14;
+
+    /**
+     * @param items elementos de la torre (Cup o Lid), de abajo hacia arriba.
+     *              No deben modificarse mientras se calcula.
+     * @return altura efectiva de la secuencia.
+     */
+    public static int of(List<Object> items) {
+        return of(items, DEFAULT_CHUNK, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param items elementos de la torre (Cup o Lid), de abajo hacia arriba.
+     * @param chunk cantidad de elementos por bloque, debe ser positiva.
+     * @param pool pool donde se resumen los bloques.
+     * @return altura efectiva de la secuencia.
+     */
+    public static int of(List<Object> items, int chunk, ForkJoinPool pool) {
+        if (chunk <= 0) throw new IllegalArgumentException("Chunk size must be positive");
+        int n = items.size();
+        if (n <= chunk) return summarize(items, 0, n).height();
+
+        NestingSummary[] summaries = new NestingSummary[(n + chunk - 1) / chunk];
+        pool.invoke(new SummarizeTask(items, chunk, summaries, 0, summaries.length));
+
+        NestingSummary.Cursor cursor = new NestingSummary.Cursor();
+        for (NestingSummary s : summaries) s.applyTo(cursor);
+        return cursor.height();
+    }
+
+    private static NestingSummary summarize(List<Object> items, int from, int to) {
+        NestingSummary.Builder b = new NestingSummary.Builder();
+        for (int i = from; i < to; i++) {
+            Object obj = items.get(i);
+            if (obj instanceof Cup) b.add(((Cup) obj).getHeight(), true);
+            else b.add(((Lid) obj).getHeight(), false);
+        }
+        return b.build();
+    }
+
+    /** Resume los bloques [from, to) dividiendo el rango hasta llegar a un bloque. */
+    private static class SummarizeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final List<Object> items;
+        private final int chunk;
+        private final NestingSummary[] out;
+        private final int from;
+        private final int to;
+
+        SummarizeTask(List<Object> items, int chunk, NestingSummary[] out, int from, int to) {
+            this.items = items;
+            this.chunk = chunk;
+            this.out = out;
+            this.from = from;
+            this.to = to;
+        }
+
+        protected void compute() {
+            if (to - from == 1) {
+                int start = from * chunk;
+                out[from] = summarize(items, start, Math.min(items.size(), start + chunk));
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new SummarizeTask(items, chunk, out, from, mid),
+                      new SummarizeTask(items, chunk, out, mid, to));
+        }
+    }
+}
@@ -0,0 +1,55 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Clase de pruebas unitarias para la clase ParallelHeight.
+ *
+ * @author Julian Morales - Sergio Buitrago
+ *
+ */
+public class ParallelHeightTest {
+
+    /**
+     * Con bloques pequeños debe dar exactamente la misma altura que Tower.height().
+     */
+    @Test
+    public void smallChunks_shouldMatchSequentialHeight() {
+        java.util.Random random = new java.util.Random(7);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        for (int round = 0; round < 200; round++) {
+            Tower t = new Tower(100, 100000);
+            for (int k = 0; k < 60; k++) {
+                int n = 1 + random.nextInt(40);
+                if (random.nextInt(3) == 0) t.pushLid(n);
+                else t.pushCup(n);
+            }
+            ArrayList<Object> items = new ArrayList<>();
+            for (String[] item : t.stackingItems()) {
+                int n = Integer.parseInt(item[1]);
+                items.add("cup".equals(item[0]) ? (Object) new Cup(n) : (Object) new Lid(n));
+            }
+            for (int chunk = 1; chunk <= 8; chunk++) {
+                assertEquals(t.height(), ParallelHeight.of(items, chunk, pool));
+            }
+        }
+        pool.shutdown();
+    }
+
+    /**
+     * Una torre vacía tiene altura 0.
+     */
+    @Test
+    public void emptyTower_shouldHaveZeroHeight() {
+        assertEquals(0, new Tower(10, 10).parallelHeight());
+    }
+
+    /**
+     * Un tamaño de bloque no positivo debe ser rechazado.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void nonPositiveChunk_shouldThrow() {
+        ParallelHeight.of(new ArrayList<Object>(), 0, ForkJoinPool.commonPool());
+    }
+}
@@ -0,0 +1,290 @@
+/**
+ * Versión inmutable (persistente) de la secuencia de elementos de una torre.
+ *
+ * Internamente es un árbol AVL indexado por posición en el que cada nodo guarda
+ * el {@link NestingSummary} de su subárbol. Cada modificación copia solo el camino
+ * desde la raíz hasta el nodo tocado (O(log n) nodos) y comparte el resto con la
+ * versión anterior, así que las versiones viejas siguen siendo válidas para
+ * evaluar hipótesis, hacer búsquedas con ramificación o deshacer.
+ *
+ * Cada nodo copiado vuelve a combinar los resúmenes de sus hijos. La pila de anchos
+ * y los sondeos de los resúmenes se comparten, así que combinar no depende del tamaño
+ * del subárbol: una modificación cuesta O(log² n) en torres anidadas, con grupos que
+ * se reinician o con muchos elementos cada vez más anchos apoyados sobre el mismo
+ * nivel (copa 1, tapa 1, copa 2, tapa 2, ...).
+ *
+ * Los elementos se guardan como códigos enteros: el número de la copa (positivo)
+ * o el número de la tapa en negativo.
+ *
+ * @author Julian Morales - Sergio Buitrago
+ */
+public final class PersistentTower {
+    private static final PersistentTower EMPTY = new PersistentTower(null);
+
+    private final Node root;
+
+    private PersistentTower(Node root) {
+        this.root = root;
+    }
+
+    /** @return la torre persistente vacía. */
+    public static PersistentTower empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Construye una torre persistente balanceada a partir de códigos en O(n).
+     * @param codes códigos de los elementos, de abajo hacia arriba.
+     */
+    public static PersistentTower of(int[] codes) {
+        return codes.length == 0 ? EMPTY : new PersistentTower(build(codes, 0, codes.length));
+    }
+
+    /** @return código de la copa número n. */
+    public static int cupCode(int n) {
+        return n;
+    }
+
+    /** @return código de la tapa número n. */
+    public static int lidCode(int n) {
+        return -n;
+    }
+
+    /** @return true si el código corresponde a una copa. */
+    public static boolean isCup(int code) {
+        return code > 0;
+    }
+
+    /** @return número de la copa o tapa representada por el código. */
+    public static int number(int code) {
+        return Math.abs(code);
+    }
+
+    /** @return altura en cm del elemento representado por el código. */
+    public static int heightOf(int code) {
+        return code > 0 ? 2 * code - 1 : 1;
+    }
+
+    public int size() {
+        return size(root);
+    }
+
+    /** @return altura efectiva (con anidamiento) de esta versión, en O(1). */
+    public int height() {
+        return root == null ? 0 : root.summary.height();
+    }
+
+    /**
+     * @return altura efectiva que tendría la versión con el elemento agregado en el
+     * tope, en O(1) y sin crear objetos.
+     */
+    public int heightIfPush(int code) {
+        checkCode(code);
+        return summary().heightWith(heightOf(code));
+    }
+
+    /** @return resumen de anidamiento de toda la secuencia. */
+    public NestingSummary summary() {
+        return root == null ? NestingSummary.EMPTY : root.summary;
+    }
+
+    /** @return código del elemento en la posición i. */
+    public int get(int i) {
+        checkIndex(i, size());
+        Node n = root;
+        while (true) {
+            int ls = size(n.left);
+            if (i < ls) {
+                n = n.left;
+            } else if (i == ls) {
+                return n.code;
+            } else {
+                i -= ls + 1;
+                n = n.right;
+            }
+        }
+    }
+
+    /** @return nueva versión con el elemento agregado en el tope. */
+    public PersistentTower push(int code) {
+        return insert(size(), code);
+    }
+
+    /** @return nueva versión con el elemento insertado en la posición i. */
+    public PersistentTower insert(int i, int code) {
+        checkCode(code);
+        checkIndex(i, size() + 1);
+        return new PersistentTower(insert(root, i, code));
+    }
+
+    /** @return nueva versión sin el elemento de la posición i. */
+    public PersistentTower remove(int i) {
+        checkIndex(i, size());
+        return new PersistentTower(remove(root, i));
+    }
+
+    /** @return nueva versión con el elemento de la posición i reemplazado. */
+    public PersistentTower set(int i, int code) {
+        checkCode(code);
+        checkIndex(i, size());
+        return new PersistentTower(set(root, i, code));
+    }
+
+    /** @return nueva versión con los elementos de las posiciones i y j intercambiados. */
+    public PersistentTower swap(int i, int j) {
+        if (i == j) return this;
+        int a = get(i);
+        int b = get(j);
+        return set(i, b).set(j, a);
+    }
+
+    /** @return los códigos de la secuencia, de abajo hacia arriba. */
+    public int[] toArray() {
+        int[] out = new int[size()];
+        fill(root, out, 0);
+        return out;
+    }
+
+    /**
+     * Copia en 'out' los códigos desde la posición 'from', tantos como quepan o queden.
+     * Sirve para recorrer la secuencia por tramos sin copiarla entera.
+     * @return cantidad de códigos copiados.
+     */
+    public int copy(int from, int[] out) {
+        checkIndex(from, size() + 1);
+        int to = Math.min(size(), from + out.length);
+        fillRange(root, from, to, out, 0);
+        return to - from;
+    }
+
+    /** @return la secuencia con el mismo formato de Tower.stackingItems(). */
+    public String[][] stackingItems() {
+        int[] codes = toArray();
+        String[][] result = new String[codes.length][2];
+        for (int i = 0; i < codes.length; i++) {
+            result[i][0] = isCup(codes[i]) ? "cup" : "lid";
+            result[i][1] = String.valueOf(number(codes[i]));
+        }
+        return result;
+    }
+
+    // ---- Árbol ----
+
+    private static final class Node {
+        private final int code;
+        private final Node left;
+        private final Node right;
+        private final int size;
+        private final int depth;
+        private final NestingSummary summary;
+
+        private Node(int code, Node left, Node right) {
+            this.code = code;
+            this.left = left;
+            this.right = right;
+            this.size = size(left) + 1 + size(right);
+            this.depth = Math.max(depth(left), depth(right)) + 1;
+            NestingSummary self = NestingSummary.of(heightOf(code), isCup(code));
+            NestingSummary s = (left == null) ? self : left.summary.then(self);
+            this.summary = (right == null) ? s : s.then(right.summary);
+        }
+    }
+
+    private static int size(Node n) {
+        return n == null ? 0 : n.size;
+    }
+
+    private static int depth(Node n) {
+        return n == null ? 0 : n.depth;
+    }
+
+    private static Node build(int[] codes, int from, int to) {
+        if (from >= to) return null;
+        int mid = (from + to) >>> 1;
+        checkCode(codes[mid]);
+        return new Node(codes[mid], build(codes, from, mid), build(codes, mid + 1, to));
+    }
+
+    private static Node insert(Node n, int i, int code) {
+        if (n == null) return new Node(code, null, null);
+        int ls = size(n.left);
+        if (i <= ls) return balance(n.code, insert(n.left, i, code), n.right);
+        return balance(n.code, n.left, insert(n.right, i - ls - 1, code));
+    }
+
+    private static Node remove(Node n, int i) {
+        int ls = size(n.left);
+        if (i < ls) return balance(n.code, remove(n.left, i), n.right);
+        if (i > ls) return balance(n.code, n.left, remove(n.right, i - ls - 1));
+        if (n.left == null) return n.right;
+        if (n.right == null) return n.left;
+        int successor = first(n.right);
+        return balance(successor, n.left, remove(n.right, 0));
+    }
+
+    private static Node set(Node n, int i, int code) {
+        int ls = size(n.left);
+        if (i < ls) return new Node(n.code, set(n.left, i, code), n.right);
+        if (i > ls) return new Node(n.code, n.left, set(n.right, i - ls - 1, code));
+        return new Node(code, n.left, n.right);
+    }
+
+    private static int first(Node n) {
+        while (n.left != null) n = n.left;
+        return n.code;
+    }
+
+    private static Node balance(int code, Node left, Node right) {
+        int diff = depth(left) - depth(right);
+        if (diff > 1) {
+            if (depth(left.left) < depth(left.right)) {
+                left = rotateLeft(left.code, left.left, left.right);
+            }
+            return new Node(left.code, left.left, new Node(code, left.right, right));
+        }
+        if (diff < -1) {
+            if (depth(right.right) < depth(right.left)) {
+                right = rotateRight(right.code, right.left, right.right);
+            }
+            return new Node(right.code, new Node(code, left, right.left), right.right);
+        }
+        return new Node(code, left, right);
+    }
+
+    private static Node rotateLeft(int code, Node left, Node right) {
+        return new Node(right.code, new Node(code, left, right.left), right.right);
+    }
+
+    private static Node rotateRight(int code, Node left, Node right) {
+        return new Node(left.code, left.left, new Node(code, left.right, right));
+    }
+
+    private static int fill(Node n, int[] out, int at) {
+        if (n == null) return at;
+        at = fill(n.left, out, at);
+        out[at++] = n.code;
+        return fill(n.right, out, at);
+    }
+
+    /**
+     * Copia los códigos del subárbol n cuyas posiciones (relativas a n) están en
+     * [from, to) a partir de out[at]; devuelve la posición siguiente en 'out'.
+     */
+    private static int fillRange(Node n, int from, int to, int[] out, int at) {
+        if (n == null || from >= to || to <= 0 || from >= n.size) return at;
+        int ls = size(n.left);
+        at = fillRange(n.left, from, to, out, at);
+        if (from <= ls && ls < to) out[at++] = n.code;
+        return fillRange(n.right, from - ls - 1, to - ls - 1, out, at);
+    }
+
+    private static void checkCode(int code) {
+        if (code == 0) throw new IllegalArgumentException("Item code must be non-zero");
+    }
+
+    private static void checkIndex(int i, int bound) {
+        if (i < 0 || i >= bound) {
+            throw new IndexOutOfBoundsException("Index " + i + " out of bounds for size " + bound);
+        }
+    }
+}
@@ -0,0 +1,169 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Clase de pruebas unitarias para las clases PersistentTower y NestingSummary.
+ *
+ * @author Julian Morales - Sergio Buitrago
+ *
+ */
+public class PersistentTowerTest {
+
+    /**
+     * La torre vacía no tiene elementos ni altura.
+     */
+    @Test
+    public void empty_shouldHaveNoItemsAndZeroHeight() {
+        PersistentTower p = PersistentTower.empty();
+        assertEquals(0, p.size());
+        assertEquals(0, p.height());
+        assertEquals(0, p.stackingItems().length);
+    }
+
+    /**
+     * La altura debe coincidir con la de Tower para la misma secuencia (anidando 4 y 3).
+     */
+    @Test
+    public void height_shouldMatchTowerNesting() {
+        PersistentTower p = PersistentTower.empty()
+            .push(PersistentTower.cupCode(4))
+            .push(PersistentTower.cupCode(3));
+        assertEquals(7, p.height());
+
+        p = p.push(PersistentTower.cupCode(5));
+        assertEquals(16, p.height());
+    }
+
+    /**
+     * Las versiones anteriores no deben cambiar al modificar una nueva versión.
+     */
+    @Test
+    public void oldVersions_shouldStayValid() {
+        PersistentTower v1 = PersistentTower.empty().push(PersistentTower.cupCode(2));
+        PersistentTower v2 = v1.push(PersistentTower.lidCode(2));
+        PersistentTower v3 = v2.remove(0);
+
+        assertEquals(1, v1.size());
+        assertEquals(2, v2.size());
+        assertEquals(1, v3.size());
+        assertEquals(PersistentTower.cupCode(2), v1.get(0));
+        assertEquals(PersistentTower.lidCode(2), v3.get(0));
+    }
+
+    /**
+     * insert, set y swap deben dejar la secuencia esperada.
+     */
+    @Test
+    public void insertSetSwap_shouldUpdatePositions() {
+        PersistentTower p = PersistentTower.of(new int[]{1, 2, 3});
+        p = p.insert(1, PersistentTower.lidCode(1));
+        assertArrayEquals(new int[]{1, -1, 2, 3}, p.toArray());
+
+        p = p.set(3, 7);
+        assertArrayEquals(new int[]{1, -1, 2, 7}, p.toArray());
+
+        p = p.swap(0, 3);
+        assertArrayEquals(new int[]{7, -1, 2, 1}, p.toArray());
+    }
+
+    /**
+     * Un índice fuera de rango debe ser rechazado.
+     */
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void remove_outOfRange_shouldThrow() {
+        PersistentTower.of(new int[]{1}).remove(1);
+    }
+
+    /**
+     * Construir por partes y encadenar resúmenes debe dar la misma altura que
+     * recorrer la secuencia completa.
+     */
+    @Test
+    public void summaries_shouldComposeLikeSequentialPass() {
+        java.util.Random random = new java.util.Random(42);
+        for (int round = 0; round < 500; round++) {
+            int n = random.nextInt(30);
+            int[] codes = new int[n];
+            for (int i = 0; i < n; i++) {
+                int number = 1 + random.nextInt(10);
+                codes[i] = random.nextInt(3) == 0 ? PersistentTower.lidCode(number)
+                                                  : PersistentTower.cupCode(number);
+            }
+
+            NestingSummary.Builder sequential = new NestingSummary.Builder();
+            PersistentTower grown = PersistentTower.empty();
+            for (int code : codes) {
+                sequential.add(PersistentTower.heightOf(code), PersistentTower.isCup(code));
+                grown = grown.insert(random.nextInt(grown.size() + 1), code);
+            }
+            int[] shuffled = grown.toArray();
+
+            NestingSummary.Builder expected = new NestingSummary.Builder();
+            for (int code : shuffled) {
+                expected.add(PersistentTower.heightOf(code), PersistentTower.isCup(code));
+            }
+            assertEquals(sequential.build().height(), PersistentTower.of(codes).height());
+            assertEquals(expected.build().height(), grown.height());
+        }
+    }
+
+    /**
+     * La foto de una Tower no debe cambiar cuando la torre se modifica después.
+     */
+    @Test
+    public void towerSnapshot_shouldBeIndependentOfLaterChanges() {
+        Tower t = new Tower(60, 40);
+        t.pushCup(4);
+        t.pushCup(3);
+        PersistentTower before = t.snapshot();
+
+        t.popCup();
+        t.pushCup(6);
+
+        assertEquals(2, before.size());
+        assertEquals(7, before.height());
+        assertEquals(t.height(), t.snapshot().height());
+    }
+
+    /**
+     * heightIfPush debe coincidir con la altura de la versión que crea push.
+     */
+    @Test
+    public void heightIfPush_shouldMatchPush() {
+        java.util.Random random = new java.util.Random(11);
+        PersistentTower tower = PersistentTower.empty();
+        for (int round = 0; round < 2000; round++) {
+            int code = random.nextBoolean() ? 1 + random.nextInt(20) : -(1 + random.nextInt(20));
+            PersistentTower next = tower.push(code);
+            assertEquals(next.height(), tower.heightIfPush(code));
+            tower = random.nextInt(8) == 0 ? PersistentTower.empty() : next;
+        }
+    }
+    /**
+     * En una serie copa 1, tapa 1, copa 2, tapa 2, ... cada modificación debe dar la
+     * misma altura que recalcular la secuencia completa.
+     */
+    @Test
+    public void alternatingPairs_shouldMatchSequentialPassAfterEdits() {
+        int pairs = 300;
+        int[] codes = new int[2 * pairs];
+        for (int i = 0; i < pairs; i++) {
+            codes[2 * i] = PersistentTower.cupCode(i + 1);
+            codes[2 * i + 1] = PersistentTower.lidCode(i + 1);
+        }
+        PersistentTower p = PersistentTower.of(codes);
+        java.util.Random random = new java.util.Random(7);
+        for (int k = 0; k < 200; k++) {
+            int i = random.nextInt(codes.length);
+            int number = 1 + random.nextInt(pairs);
+            codes[i] = (i % 2 == 0) ? PersistentTower.cupCode(number) : PersistentTower.lidCode(number);
+            p = p.set(i, codes[i]);
+
+            NestingSummary.Builder expected = new NestingSummary.Builder();
+            for (int code : codes) {
+                expected.add(PersistentTower.heightOf(code), PersistentTower.isCup(code));
+            }
+            assertEquals(expected.build().height(), p.height());
+        }
+    }
+}
\ No newline at end of file
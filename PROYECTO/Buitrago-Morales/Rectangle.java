@@ -19,6 +19,8 @@ public class Rectangle{
     private int yPosition;
     private String color;
     private boolean isVisible;
+    private int layer = Canvas.FOREGROUND;
+    private Canvas canvas;
 
     /**
      * Create a new rectangle at default position with default color.
@@ -159,17 +161,41 @@ public class Rectangle{
         draw();
     }
 
+    /**
+     * Choose the canvas layer for this rectangle. Static shapes (base, ruler)
+     * go in Canvas.BACKGROUND so they are not repainted on every frame.
+     * @param layer Canvas.FOREGROUND or Canvas.BACKGROUND
+     */
+    public void setLayer(int layer){
+        erase();
+        this.layer = layer;
+        draw();
+    }
+
+    /**
+     * Choose the canvas this rectangle draws into.
+     * @param canvas the canvas, or null for the shared one (Canvas.getCanvas())
+     */
+    public void setCanvas(Canvas canvas){
+        if(canvas == this.canvas) return;
+        erase();
+        this.canvas = canvas;
+        draw();
+    }
+
+    private Canvas canvas(){
+        return (canvas != null) ? canvas : Canvas.getCanvas();
+    }
+
     /*
      * Draw the rectangle with current specifications on screen.
      */
 
     private void draw() {
         if(isVisible) {
-            Canvas canvas = Canvas.getCanvas();
-            canvas.draw(this, color,
+            canvas().draw(this, color,
                 new java.awt.Rectangle(xPosition, yPosition, 
-                                       width, height));
-            canvas.wait(10);
+                                       width, height), layer);
         }
     }
 
@@ -178,8 +204,7 @@ public class Rectangle{
      */
     private void erase(){
         if(isVisible) {
-            Canvas canvas = Canvas.getCanvas();
-            canvas.erase(this);
+            canvas().erase(this);
         }
     }
 }
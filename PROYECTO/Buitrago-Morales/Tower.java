@@ -1,34 +1,124 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.TreeSet;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import javax.swing.JOptionPane;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 
 /**
  * Clase principal con el objetivo de controlar el funcionamiento.
+ *
+ * Los métodos públicos están sincronizados. Las operaciones no dibujan: marcan que
+ * hay cambios y un Timer de Swing dibuja, a lo sumo una vez cada FRAME_MS y en el
+ * hilo de Swing, el estado más reciente. Ese dibujo solo toma el candado de la torre
+ * para copiar lo visible, así que no frena a las operaciones mientras dibuja.
+ *
+ * Por defecto dibuja en el canvas compartido (Canvas.getCanvas()), pero puede recibir
+ * su propio Canvas. Con un canvas fuera de pantalla (Canvas.offscreen) no hay Timer:
+ * se dibuja al llamar flushRendering, en el hilo que lo llama, así que torres con
+ * canvas distintos se pueden dibujar a la vez desde hilos distintos.
+ *
  * @author Julian Morales - Sergio Buitrago
  */
 public class Tower {
     private int width;
     private int maxHeight;
+    private final Canvas canvas;
     private ArrayList<Object> items;
+    private PersistentTower state;
+    private TowerJournal journal;
+    private TowerLayout layout;
+    // Primera posición de 'items' que cambió desde la última vez que se calculó 'layout'.
+    private int layoutFrom;
+    private ItemPool pool;
+    private BitSet lidedCups;
+    // Copas tapadas con número desde INDEXED_NUMBERS, que no caben en 'lidedCups'.
+    private TreeSet<Integer> lidedHugeCups;
+    // Números de copas y tapas presentes, para validar sin recorrer 'items'.
+    private BitSet cupNumbers;
+    private BitSet lidNumbers;
+    // Copas 1..lazyCups que aún no se han creado (modo perezoso de Tower(int, boolean)).
+    private int lazyCups;
+    private long version;
+    // Aumenta solo cuando cambia el conjunto de copas tapadas.
+    private long lidedVersion;
+    private String[][] stackingCache;
+    private long stackingCacheVersion = -1;
     private boolean isVisible;
     private static final int PIXELS_PER_CM = 10;
     private static final int CANVAS_WIDTH = 300;
     private static final int CANVAS_HEIGHT = 300;
     private static final int MARGIN = 25;
-    private static final int WALL_CM = 1;
+    /** Intervalo mínimo entre dos dibujos, en ms. */
+    private static final int FRAME_MS = 16;
+    // Con menos píxeles por cm las paredes no se distinguen y se dibujan bandas.
+    private static final int LOD_MIN_SCALE = 2;
+    // Los números desde aquí no se indexan (el BitSet crecería hasta ellos) y se buscan en 'items'.
+    private static final int INDEXED_NUMBERS = 1 << 22;
     
+    private int scale;
+    
+    // Estado del dibujo asíncrono; se usa con el candado de la torre tomado.
+    private Timer renderTimer;
+    private boolean renderPending;
+    
+    // Vista: píxeles por cm y altura (cm) del borde inferior visible.
+    private int fitScale;
+    private int viewBottomCm;
+    private boolean chromeDirty;
+    
+    // Lo que está dibujado; solo se usa con renderLock tomado, desde render().
+    private final Object renderLock = new Object();
+    private long framesDrawn;
     private Rectangle base;
     private ArrayList<Rectangle> heightMarkers;
-    private int scale;
+    private boolean chromeShown;
+    private int baseDrawnX = 70;
+    private int baseDrawnY = 15;
+    private ArrayList<BandShape> bandShapes = new ArrayList<>();
+    private boolean bandsShown;
+    private ArrayList<Object> drawn = new ArrayList<>();
+    
+    // Recorrido reutilizable para evaluar alturas sin crear objetos.
+    private NestingWalker scratch = new NestingWalker();
     
     public Tower(int width, int maxHeight) {
+        this(width, maxHeight, null);
+    }
+    
+    /**
+     * Igual a Tower(int, int), pero dibuja en el canvas dado.
+     * @param canvas Canvas de la torre, o null para el compartido.
+     */
+    public Tower(int width, int maxHeight, Canvas canvas) {
         if (width <= 0 || maxHeight <= 0) {
             throw new IllegalArgumentException("Width and height must be positive");
         }
         this.width = width;
         this.maxHeight = maxHeight;
+        this.canvas = canvas;
         this.items = new ArrayList<>();
+        this.state = PersistentTower.empty();
+        this.journal = new TowerJournal(TowerJournal.DEFAULT_BUDGET);
+        this.layout = new TowerLayout();
+        this.pool = new ItemPool();
+        this.lidedCups = new BitSet();
+        this.lidedHugeCups = new TreeSet<>();
+        this.cupNumbers = new BitSet();
+        this.lidNumbers = new BitSet();
         this.isVisible = false;
         this.heightMarkers = new ArrayList<>();
         
@@ -47,12 +137,39 @@ public class Tower {
      */
     
     public Tower(int numberOfCups) {
+        this(numberOfCups, true);
+    }
+    
+    /**
+     * Igual a Tower(int), pero las copas 1..n no se crean hasta que alguna operación las
+     * necesite, así que construirla es O(1) en n. La altura (n²) se responde sin crearlas.
+     * @param numberOfCups cantidad de copas.
+     * @param visible si es true la torre se hace visible de inmediato (y crea sus copas).
+     */
+    public Tower(int numberOfCups, boolean visible) {
+        this(numberOfCups, visible, null);
+    }
+    
+    /**
+     * Igual a Tower(int, boolean), pero dibuja en el canvas dado.
+     * @param canvas Canvas de la torre, o null para el compartido.
+     */
+    public Tower(int numberOfCups, boolean visible, Canvas canvas) {
         if (numberOfCups < 0) throw new IllegalArgumentException("numberOfCups must be >= 0");
 
         this.width     = (numberOfCups == 0) ? 0 : (2 * numberOfCups - 1);
         this.maxHeight = numberOfCups * numberOfCups;
+        this.canvas = canvas;
 
         this.items = new ArrayList<>();
+        this.state = PersistentTower.empty();
+        this.journal = new TowerJournal(TowerJournal.DEFAULT_BUDGET);
+        this.layout = new TowerLayout();
+        this.pool = new ItemPool();
+        this.lidedCups = new BitSet();
+        this.lidedHugeCups = new TreeSet<>();
+        this.cupNumbers = new BitSet();
+        this.lidNumbers = new BitSet();
         this.isVisible = false;
         this.heightMarkers = new ArrayList<>();
 
@@ -63,42 +180,43 @@ public class Tower {
         if (this.scale < 2) this.scale = 2;
         initializeBase();
 
-        for (int i = 1; i <= numberOfCups; i++) items.add(new Cup(i));
+        this.lazyCups = numberOfCups;
 
-        makeVisible();
+        if (visible) makeVisible();
     }
 
     
     private void initializeBase() {
+        fitScale = scale;
         base = new Rectangle();
+        base.setCanvas(canvas);
         base.changeSize(5, width * scale);
         base.changeColor("black");
+        base.setLayer(Canvas.BACKGROUND);
     }
     
-    public void pushCup(int i) {
+    public synchronized void pushCup(int i) {
+        ensureCups();
+        journal.begin();
         if (cupExists(i)) {
             showError("Cup #" + i + " already exists");
             return;
         }
-        Cup cup = new Cup(i);
-        java.util.ArrayList<Object> sim = new java.util.ArrayList<>(items);
-        sim.add(cup);
-        int eff = calculateEffectiveHeightCm(sim);
-        if (eff <= maxHeight) {
-            items.add(cup);
+        // Se valida con el resumen de la raíz; la versión nueva solo se crea si se acepta.
+        if (state.heightIfPush(PersistentTower.cupCode(i)) <= maxHeight) {
+            addCup(i, state.push(PersistentTower.cupCode(i)));
             if (isVisible) redraw();
         } else {
             showError("Cannot add cup #" + i + ": exceeds max height when stacked");
         }
     }
     
-    public void popCup() {
+    public synchronized void popCup() {
+        ensureCups();
+        journal.begin();
         for (int i = items.size() - 1; i >= 0; i--) {
             if (items.get(i) instanceof Cup) {
-                Cup cup = (Cup) items.get(i);
-                cup.makeInvisible();
-                if (cup.hasLid()) items.remove(cup.getLid());
-                items.remove(cup);
+                removeCupAt(i);
                 if (isVisible) redraw();
                 return;
             }
@@ -106,14 +224,25 @@ public class Tower {
         showError("No cups to remove");
     }
     
-    public void removeCup(int i) {
+    /**
+     * Quita la copa i (con su tapa, si la tiene). Saber si la copa está es O(1) con
+     * el conjunto de números presentes, así que un número ausente se rechaza sin
+     * recorrer la torre. Quitarla cuesta O(n): se busca su posición recorriendo
+     * 'items' y la lista corre los elementos de encima; el índice persistente se
+     * actualiza en O(log n).
+     */
+    public synchronized void removeCup(int i) {
+        ensureCups();
+        journal.begin();
+        if (!cupExists(i)) {
+            showError("Cup #" + i + " not found");
+            return;
+        }
         for (int j = 0; j < items.size(); j++) {
             if (items.get(j) instanceof Cup) {
                 Cup cup = (Cup) items.get(j);
                 if (cup.getNumber() == i) {
-                    cup.makeInvisible();
-                    if (cup.hasLid()) items.remove(cup.getLid());
-                    items.remove(cup);
+                    removeCupAt(j);
                     if (isVisible) redraw();
                     return;
                 }
@@ -122,37 +251,39 @@ public class Tower {
         showError("Cup #" + i + " not found");
     }
     
-    public void pushLid(int i) {
+    public synchronized void pushLid(int i) {
+        ensureCups();
+        journal.begin();
         if (lidExists(i)) {
             showError("Lid #" + i + " already exists");
             return;
         }
-        Lid lid = new Lid(i);
+        Lid lid = obtainLid(i);
         Cup matchingCup = findCup(i);
         if (matchingCup != null && !matchingCup.hasLid()) {
-            matchingCup.setLid(lid);
-            lid.attachTo(matchingCup);
+            setCupLid(matchingCup, lid);
+            setLidCup(lid, matchingCup);
+            // La copa queda tapada aunque el push se rechace más abajo.
+            if (isVisible) redraw();
         }
     
-        java.util.ArrayList<Object> sim = new java.util.ArrayList<>(items);
-        sim.add(lid);
-        int eff = calculateEffectiveHeightCm(sim);
-    
-        if (eff <= maxHeight) {
-            items.add(lid);
+        if (state.heightIfPush(PersistentTower.lidCode(i)) <= maxHeight) {
+            addItem(lid, state.push(PersistentTower.lidCode(i)));
             if (isVisible) redraw();
         } else {
             showError("Cannot add lid #" + i + ": exceeds max height when stacked");
         }
     }
     
-    public void popLid() {
+    public synchronized void popLid() {
+        ensureCups();
+        journal.begin();
         for (int i = items.size() - 1; i >= 0; i--) {
             if (items.get(i) instanceof Lid) {
                 Lid lid = (Lid) items.get(i);
-                lid.makeInvisible();
-                if (lid.isOnCup()) lid.getAssociatedCup().setLid(null);
-                items.remove(lid);
+                if (lid.isOnCup()) setCupLid(lid.getAssociatedCup(), null);
+                removeItemAt(i);
+                pool.release(lid);
                 if (isVisible) redraw();
                 return;
             }
@@ -160,14 +291,24 @@ public class Tower {
         showError("No lids to remove");
     }
     
-    public void removeLid(int i) {
+    /**
+     * Quita la tapa i. Igual que removeCup: un número ausente se rechaza en O(1) y
+     * quitar una tapa presente cuesta O(n) por la búsqueda y el corrimiento de 'items'.
+     */
+    public synchronized void removeLid(int i) {
+        ensureCups();
+        journal.begin();
+        if (!lidExists(i)) {
+            showError("Lid #" + i + " not found");
+            return;
+        }
         for (int j = 0; j < items.size(); j++) {
             if (items.get(j) instanceof Lid) {
                 Lid lid = (Lid) items.get(j);
                 if (lid.getNumber() == i) {
-                    lid.makeInvisible();
-                    if (lid.isOnCup()) lid.getAssociatedCup().setLid(null);
-                    items.remove(lid);
+                    if (lid.isOnCup()) setCupLid(lid.getAssociatedCup(), null);
+                    removeItemAt(j);
+                    pool.release(lid);
                     if (isVisible) redraw();
                     return;
                 }
@@ -176,160 +317,275 @@ public class Tower {
         showError("Lid #" + i + " not found");
     }
     
-    public void orderTower() {
-        for (Object item : items) {
-            if (item instanceof Cup) ((Cup) item).makeInvisible();
-            else if (item instanceof Lid) ((Lid) item).makeInvisible();
-        }
-        
-        ArrayList<Cup> cups = new ArrayList<>();
-        ArrayList<Lid> lids = new ArrayList<>();
+    public synchronized void orderTower() {
+        orderTower(false);
+    }
+    
+    /**
+     * Ordena la torre de la copa más grande (abajo) a la más pequeña, cada una con su tapa,
+     * y encima las tapas sueltas de mayor a menor. Las copas que no caben en maxHeight
+     * se descartan.
+     * @param keepMostCups si es true se conservan las copas más livianas que quepan, que es
+     *        la forma de descartar la menor cantidad posible; si es false se conservan
+     *        primero las más grandes.
+     */
+    public synchronized void orderTower(boolean keepMostCups) {
+        ensureCups();
+        journal.begin();
+        ArrayList<Object> cups = new ArrayList<>();
+        ArrayList<Object> lids = new ArrayList<>();
         
         for (Object item : items) {
             if (item instanceof Cup) {
-                cups.add((Cup) item);
+                cups.add(item);
             } else if (item instanceof Lid) {
                 Lid lid = (Lid) item;
                 if (!lid.isOnCup()) lids.add(lid);
             }
         }
         
-        Collections.sort(cups, new Comparator<Cup>() {
-            public int compare(Cup c1, Cup c2) {
-                return c2.getHeight() - c1.getHeight();
-            }
-        });
-        
-        Collections.sort(lids, new Comparator<Lid>() {
-            public int compare(Lid l1, Lid l2) {
-                return l2.getNumber() - l1.getNumber();
-            }
-        });
+        Object[] sortedCups = sortByNumberDescending(cups);
+        Object[] sortedLids = sortByNumberDescending(lids);
         
-        items.clear();
+        boolean[] keep = new boolean[sortedCups.length];
         int currentHeight = 0;
-        
-        for (Cup cup : cups) {
+        for (int k = 0; k < sortedCups.length; k++) {
+            int at = keepMostCups ? sortedCups.length - 1 - k : k;
+            Cup cup = (Cup) sortedCups[at];
             int totalHeight = cup.getHeight();
             if (cup.hasLid()) totalHeight += cup.getLid().getHeight();
             
             if (currentHeight + totalHeight <= maxHeight) {
-                items.add(cup);
-                if (cup.hasLid()) items.add(cup.getLid());
+                keep[at] = true;
                 currentHeight += totalHeight;
             }
         }
         
-        for (Lid lid : lids) {
+        ArrayList<Object> ordered = new ArrayList<>();
+        for (int k = 0; k < sortedCups.length; k++) {
+            if (!keep[k]) continue;
+            Cup cup = (Cup) sortedCups[k];
+            ordered.add(cup);
+            if (cup.hasLid()) ordered.add(cup.getLid());
+        }
+        
+        for (Object item : sortedLids) {
+            Lid lid = (Lid) item;
             if (currentHeight + lid.getHeight() <= maxHeight) {
-                items.add(lid);
+                ordered.add(lid);
                 currentHeight += lid.getHeight();
             }
         }
+        replaceItems(ordered);
         
         if (isVisible) redraw();
     }
     
-    public void reverseTower() {
-        Collections.reverse(items);
+    /**
+     * Invierte la torre y quita desde el tope lo que no quepa en maxHeight, según la
+     * altura efectiva (la misma de ok()). Una copa quitada se lleva su tapa.
+     */
+    public synchronized void reverseTower() {
+        ensureCups();
+        journal.begin();
+        reverseItems();
         
-        while (calculateHeight() > maxHeight && !items.isEmpty()) {
-            Object removed = items.remove(items.size() - 1);
-            if (removed instanceof Cup) {
-                Cup cup = (Cup) removed;
-                cup.makeInvisible();
-                if (cup.hasLid()) {
-                    items.remove(cup.getLid());
-                    cup.getLid().makeInvisible();
-                }
-            } else if (removed instanceof Lid) {
-                ((Lid) removed).makeInvisible();
-            }
+        // La altura efectiva de los prefijos nunca baja, así que el corte es el primer
+        // prefijo que se pasa y se encuentra en una sola pasada.
+        int cut = 0;
+        scratch.reset();
+        while (cut < items.size()) {
+            feedItem(items.get(cut));
+            if (scratch.height() > maxHeight) break;
+            cut++;
+        }
+        if (cut < items.size()) truncateItems(cut);
+        
+        // Quitar tapas de más abajo puede deshacer un anidamiento; en ese caso se
+        // sigue recortando desde el tope.
+        while (state.height() > maxHeight && !items.isEmpty()) {
+            truncateItems(items.size() - 1);
         }
         
         if (isVisible) redraw();
     }
     
     
-    public int height() {
-        return calculateEffectiveHeightCm(items);
+    /**
+     * @return altura efectiva de la torre, en O(1). Se lee del resumen de la raíz del
+     * índice persistente, que cada inserción, eliminación o intercambio ya dejó al día
+     * (el costo de esa actualización está en {@link NestingSummary}).
+     */
+    public synchronized int height() {
+        // Las copas 1..n sin crear van de menor a mayor: ninguna anida, la altura es n².
+        if (lazyCups > 0) return lazyCups * lazyCups;
+        return state.height();
+    }
+    
+    /**
+     * @return descriptor {"cup"|"lid", "numero"} del elemento en la posición dada
+     * (0 es la base), obtenido del índice en O(log n).
+     */
+    public synchronized String[] itemAt(int position) {
+        ensureCups();
+        if (position < 0 || position >= state.size()) {
+            showError("Position " + position + " out of range");
+            return null;
+        }
+        int code = state.get(position);
+        return new String[] {
+            PersistentTower.isCup(code) ? "cup" : "lid",
+            String.valueOf(PersistentTower.number(code))
+        };
+    }
+    
+    /**
+     * Igual a height(), pero resume bloques de la torre en paralelo.
+     * Solo conviene en torres con cientos de miles de elementos.
+     */
+    public synchronized int parallelHeight() {
+        ensureCups();
+        return ParallelHeight.of(items);
     }
 
     
-    public int[] lidedCups() {
-        ArrayList<Integer> covered = new ArrayList<>();
-        for (Object item : items) {
-            if (item instanceof Cup) {
-                Cup cup = (Cup) item;
-                if (cup.hasLid()) covered.add(cup.getNumber());
-            }
-        }
-        Collections.sort(covered);
-        int[] result = new int[covered.size()];
-        for (int i = 0; i < covered.size(); i++) {
-            result[i] = covered.get(i);
+    /**
+     * @return números de las copas tapadas, en orden ascendente. Se copian del
+     * conjunto de bits que mantienen los helpers, sin recorrer la torre; los números
+     * enormes, que van aparte, son mayores que todos los del conjunto y van al final.
+     */
+    public synchronized int[] lidedCups() {
+        int[] result = new int[lidedCupCount()];
+        int k = 0;
+        for (int n = lidedCups.nextSetBit(0); n >= 0; n = lidedCups.nextSetBit(n + 1)) {
+            result[k++] = n;
         }
+        for (int n : lidedHugeCups) result[k++] = n;
         return result;
     }
     
-    public String[][] stackingItems() {
-        String[][] result = new String[items.size()][2];
-        for (int i = 0; i < items.size(); i++) {
-            Object item = items.get(i);
-            if (item instanceof Cup) {
-                result[i][0] = "cup";
-                result[i][1] = String.valueOf(((Cup) item).getNumber());
-            } else if (item instanceof Lid) {
-                result[i][0] = "lid";
-                result[i][1] = String.valueOf(((Lid) item).getNumber());
-            }
+    /** @return cantidad de copas tapadas. */
+    public synchronized int lidedCupCount() {
+        return lidedCups.cardinality() + lidedHugeCups.size();
+    }
+    
+    /**
+     * @return descriptores {"cup"|"lid", "numero"} de abajo hacia arriba. El arreglo
+     * se guarda y se reutiliza mientras la torre no cambie ({@link #version()}), así que
+     * es compartido: no debe modificarse.
+     */
+    public synchronized String[][] stackingItems() {
+        ensureCups();
+        if (stackingCacheVersion != version) {
+            stackingCache = state.stackingItems();
+            stackingCacheVersion = version;
         }
-        return result;
+        return stackingCache;
     }
     
-    public void makeVisible() {
+    /**
+     * Variante primitiva de stackingItems(): el número de cada copa en positivo y el
+     * de cada tapa en negativo (ver {@link PersistentTower#cupCode(int)}).
+     * @return arreglo nuevo con los códigos, de abajo hacia arriba.
+     */
+    public synchronized int[] stackingCodes() {
+        ensureCups();
+        return state.toArray();
+    }
+    
+    /**
+     * @return contador que aumenta con cada cambio de la torre (elementos o tapas),
+     * útil para saber si algo cambió desde la última lectura.
+     */
+    public synchronized long version() {
+        return version;
+    }
+    
+    /**
+     * @return contador que aumenta solo cuando cambia el conjunto de copas tapadas;
+     * mientras no cambie, lidedCups() devuelve lo mismo.
+     */
+    synchronized long lidedVersion() {
+        return lidedVersion;
+    }
+    
+    public synchronized void makeVisible() {
+        ensureCups();
         isVisible = true;
-        int totalWidthPx = width * scale;
-        int baseX = (CANVAS_WIDTH - totalWidthPx) / 2;
-        int baseY = CANVAS_HEIGHT - MARGIN;
-        base.moveHorizontal(-70 + baseX);
-        base.moveVertical(-15 + baseY);
-        base.makeVisible();
-        createHeightMarkers();
         redraw();
     }
     
-    public void makeInvisible() {
+    public synchronized void makeInvisible() {
         isVisible = false;
-        base.makeInvisible();
-        removeHeightMarkers();
-        for (Object item : items) {
-            if (item instanceof Cup) ((Cup) item).makeInvisible();
-            else if (item instanceof Lid) ((Lid) item).makeInvisible();
+        redraw();
+    }
+    
+    /**
+     * Cambia el zoom de la vista.
+     * @param pixelsPerCm píxeles por cm, debe ser positivo.
+     */
+    public synchronized void setZoom(int pixelsPerCm) {
+        if (pixelsPerCm <= 0) {
+            showError("Zoom must be positive");
+            return;
         }
+        scale = pixelsPerCm;
+        chromeDirty = true;
+        if (isVisible) redraw();
     }
     
+    /** Vuelve al zoom con el que la torre cabe en el canvas y a la vista desde la base. */
+    public synchronized void fitToCanvas() {
+        scale = fitScale;
+        viewBottomCm = 0;
+        chromeDirty = true;
+        if (isVisible) redraw();
+    }
     
-    public boolean ok() {
-        return calculateEffectiveHeightCm(items) <= maxHeight;
+    /**
+     * Desplaza la vista para que su borde inferior quede a esa altura.
+     * @param bottomCm altura en cm, entre 0 y la altura de la torre.
+     */
+    public synchronized void scrollTo(int bottomCm) {
+        viewBottomCm = Math.max(0, Math.min(bottomCm, height()));
+        chromeDirty = true;
+        if (isVisible) redraw();
+    }
+    
+    /**
+     * Dibuja ya los cambios pendientes y espera a que terminen, sin esperar al Timer.
+     */
+    public void flushRendering() {
+        if (isOffscreen() || SwingUtilities.isEventDispatchThread()) {
+            render();
+            return;
+        }
+        try {
+            SwingUtilities.invokeAndWait(new Runnable() {
+                public void run() {
+                    render();
+                }
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (java.lang.reflect.InvocationTargetException e) {
+            throw new IllegalStateException("Rendering failed", e.getCause());
+        }
+    }
+    
+    
+    public synchronized boolean ok() {
+        return height() <= maxHeight;
     }
 
     
-    public void exit() {
+    public synchronized void exit() {
         makeInvisible();
         System.exit(0);
     }
     
-    private int calculateHeight() {
-        int total = 0;
-        for (Object item : items) {
-            if (item instanceof Cup) total += ((Cup) item).getHeight();
-            else if (item instanceof Lid) total += ((Lid) item).getHeight();
-        }
-        return total;
-    }
-    
     private boolean cupExists(int number) {
+        if (isIndexed(number)) return cupNumbers.get(number);
         for (Object item : items) {
             if (item instanceof Cup && ((Cup) item).getNumber() == number) return true;
         }
@@ -337,12 +593,17 @@ public class Tower {
     }
     
     private boolean lidExists(int number) {
+        if (isIndexed(number)) return lidNumbers.get(number);
         for (Object item : items) {
             if (item instanceof Lid && ((Lid) item).getNumber() == number) return true;
         }
         return false;
     }
     
+    private static boolean isIndexed(int number) {
+        return number >= 0 && number < INDEXED_NUMBERS;
+    }
+    
     private Cup findCup(int number) {
         for (Object item : items) {
             if (item instanceof Cup && ((Cup) item).getNumber() == number) {
@@ -352,17 +613,19 @@ public class Tower {
         return null;
     }
     
-    private void createHeightMarkers() {
+    /** Crea las marcas de altura que caen dentro del canvas (de 0 a maxCm cm). */
+    private void createHeightMarkers(int baseX, int baseY, int pixelsPerCm, int maxCm) {
         removeHeightMarkers();
-        int totalWidthPx = width * scale;
-        int baseX = (CANVAS_WIDTH - totalWidthPx) / 2;
-        int baseY = CANVAS_HEIGHT - MARGIN;
+        int fromCm = Math.max(0, (baseY - CANVAS_HEIGHT + pixelsPerCm - 1) / pixelsPerCm);
+        int toCm = Math.min(maxCm, baseY / pixelsPerCm);
         
-        for (int cm = 0; cm <= maxHeight; cm++) {
+        for (int cm = fromCm; cm <= toCm; cm++) {
             Rectangle marker = new Rectangle();
+            marker.setCanvas(canvas);
             marker.changeSize(2, 15);
             marker.changeColor("black");
-            int yPos = baseY - (cm * scale);
+            marker.setLayer(Canvas.BACKGROUND);
+            int yPos = baseY - (cm * pixelsPerCm);
             marker.moveHorizontal(-70 + (baseX - 20));
             marker.moveVertical(-15 + yPos);
             marker.makeVisible();
@@ -376,115 +639,313 @@ public class Tower {
     }
     
     
+    /**
+     * Pide un dibujo. Varias llamadas seguidas se juntan en un solo dibujo que el
+     * Timer hace en el hilo de Swing con el estado que haya en ese momento. Con un
+     * canvas fuera de pantalla solo queda pendiente hasta flushRendering.
+     */
     private void redraw() {
-        if (!isVisible) return;
-    
-        for (Object item : items) {
-            if (item instanceof Cup) ((Cup) item).makeInvisible();
-            else if (item instanceof Lid) ((Lid) item).makeInvisible();
+        renderPending = true;
+        if (isOffscreen()) return;
+        if (renderTimer == null) {
+            renderTimer = new Timer(FRAME_MS, new ActionListener() {
+                public void actionPerformed(ActionEvent e) {
+                    render();
+                }
+            });
+            renderTimer.setRepeats(false);
         }
+        if (!renderTimer.isRunning()) renderTimer.start();
+    }
     
-        int totalWidthPx = width * scale;
-        int baseX = (CANVAS_WIDTH - totalWidthPx) / 2;
-        int baseY = CANVAS_HEIGHT - MARGIN;
-    
-        int accumulatedHeightCm = 0;   
-        int groupMaxTopCm = 0;         
-        java.util.Deque<Integer> innerWidthsStack = new java.util.ArrayDeque<>(); 
-        java.util.List<Lid> associatedLidsToDrawLater = new java.util.ArrayList<>();
-    
-        for (int idx = 0; idx < items.size(); idx++) {
-            Object obj = items.get(idx);
-    
-            int hCm = (obj instanceof Cup) ? ((Cup) obj).getHeight()
-                                           : ((Lid) obj).getHeight();
-    
-            int outerCm = hCm;
-            int innerCm = Math.max(0, outerCm - 2 * WALL_CM);
-    
-            boolean fitsInCurrent = innerWidthsStack.isEmpty() || (outerCm <= innerWidthsStack.peek());
+    private boolean isOffscreen() {
+        return canvas != null && canvas.isOffscreen();
+    }
     
-            if (!fitsInCurrent) {
-                accumulatedHeightCm += groupMaxTopCm;   
-                groupMaxTopCm = 0;
-                innerWidthsStack.clear();               
+    /**
+     * Dibuja lo pendiente; corre en el hilo de Swing (o en el de flushRendering).
+     * Con el candado de la torre solo se copia lo que hace falta dibujar (un Frame);
+     * el dibujo se hace después con renderLock, así que las operaciones no esperan a
+     * que termine. Si el dibujo falla, el cuadro queda pendiente para el siguiente.
+     */
+    private void render() {
+        synchronized (renderLock) {
+            Frame frame;
+            synchronized (this) {
+                if (!renderPending) return;
+                renderPending = false;
+                frame = captureFrame();
             }
-               
-            int depthCm = innerWidthsStack.size() * WALL_CM;  
-            int topThisCupCm = depthCm + hCm;
-            groupMaxTopCm = Math.max(groupMaxTopCm, topThisCupCm);
-    
-            int hPx = hCm * scale;
-            int wPx = outerCm * scale;
-    
-            int yBottomPx = baseY - (accumulatedHeightCm + depthCm) * scale;
-            int yTopPx = yBottomPx - hPx;
+            try {
+                drawFrame(frame);
+            } catch (RuntimeException e) {
+                synchronized (this) {
+                    renderPending = true;
+                    chromeDirty = true;
+                }
+                throw e;
+            }
+            framesDrawn++;
+        }
+    }
     
-            int xPos = baseX + (totalWidthPx - wPx) / 2;
-            int yPos = yTopPx;
+    /** @return cantidad de cuadros dibujados hasta ahora. */
+    long framesDrawn() {
+        synchronized (renderLock) {
+            return framesDrawn;
+        }
+    }
     
-            if (obj instanceof Cup) {
-                Cup cup = (Cup) obj;
-                cup.makeVisibleAt(xPos, yPos, wPx, hPx);
-                
-                if (cup.hasLid()) {
-                    associatedLidsToDrawLater.add(cup.getLid());
-                }
-                
-                innerWidthsStack.push(innerCm);
-                
-            } else if (obj instanceof Lid) {
-                Lid lid = (Lid) obj;
-                
-                if (!lid.isOnCup()) {
-                    lid.makeVisible();
+    /**
+     * Copia, con el candado de la torre tomado, lo que el próximo dibujo necesita: la
+     * vista y los elementos (o bandas) que caen dentro del canvas con su geometría de
+     * 'layout'. Solo se recorren los elementos de las bandas visibles, que se ubican con
+     * una búsqueda binaria; dentro de ellas el índice de bloques de 'layout' salta los
+     * tramos que no pueden verse, y se descartan las copas de las que ningún rectángulo
+     * (base, paredes o tapa) cruza el canvas, en x y en y.
+     */
+    private Frame captureFrame() {
+        Frame f = new Frame();
+        f.visible = isVisible;
+        f.chrome = chromeDirty;
+        chromeDirty = false;
+        f.scale = scale;
+        f.maxHeight = maxHeight;
+        f.totalWidthPx = width * scale;
+        f.baseX = (CANVAS_WIDTH - f.totalWidthPx) / 2;
+        f.baseY = CANVAS_HEIGHT - MARGIN;
+        f.viewOffsetPx = viewBottomCm * scale;
+        if (!isVisible) return f;
+        
+        layout.update(items, version, layoutFrom, scale, f.baseX, f.baseY, f.totalWidthPx);
+        layoutFrom = Integer.MAX_VALUE;
+        f.bands = scale < LOD_MIN_SCALE;
+        if (f.bands) {
+            for (int b = layout.firstBandAbove(CANVAS_HEIGHT - f.viewOffsetPx); b < layout.bandCount(); b++) {
+                int y = layout.bandY(b) + f.viewOffsetPx;
+                if (y + layout.bandHeight(b) < 0) break;
+                Object widest = items.get(layout.bandItem(b));
+                String color = (widest instanceof Cup) ? ((Cup) widest).getColor() : ((Lid) widest).getColor();
+                f.add(null, null, layout.bandX(b), y, layout.bandWidth(b), layout.bandHeight(b), color);
+            }
+            return f;
+        }
+        for (int b = layout.firstBandAbove(CANVAS_HEIGHT - f.viewOffsetPx); b < layout.bandCount(); b++) {
+            if (layout.bandY(b) + f.viewOffsetPx + layout.bandHeight(b) < 0) break;
+            int end = layout.bandEndItem(b);
+            int viewTop = -f.viewOffsetPx;
+            int viewBottom = CANVAS_HEIGHT - f.viewOffsetPx;
+            for (int idx = layout.nextInView(layout.bandFirstItem(b), end, viewTop, viewBottom, CANVAS_WIDTH);
+                 idx < end; idx = layout.nextInView(idx + 1, end, viewTop, viewBottom, CANVAS_WIDTH)) {
+                Object obj = items.get(idx);
+                if (obj instanceof Cup) {
+                    Cup cup = (Cup) obj;
+                    Lid lid = cup.getLid();
+                    int x = layout.x(idx);
+                    int y = layout.y(idx) + f.viewOffsetPx;
+                    int w = layout.width(idx);
+                    int h = layout.height(idx);
+                    if (!cup.partsInView(x, y, w, h, CANVAS_WIDTH, CANVAS_HEIGHT)
+                            && (lid == null || !Cup.inView(x, y, w, Lid.thicknessOn(h), CANVAS_WIDTH, CANVAS_HEIGHT))) {
+                        continue;
+                    }
+                    f.add(cup, lid, x, y, w, h, null);
+                } else if (!((Lid) obj).isOnCup()) {
+                    f.add(obj, null, 0, 0, 0, 0, null);
                 }
-                
             }
         }
+        return f;
+    }
     
-        accumulatedHeightCm += groupMaxTopCm;
+    /**
+     * Dibuja un Frame; solo se usa con renderLock tomado. Todos los cambios del cuadro
+     * van en un lote del canvas (beginBatch/endBatch), así que el canvas compone la
+     * imagen una sola vez al final y el fondo se rasteriza a lo sumo una vez, sin
+     * importar cuántos rectángulos o marcas cambien.
+     */
+    private void drawFrame(Frame f) {
+        if (!f.visible && !chromeShown && !bandsShown && drawn.isEmpty()) return;
+        Canvas target = (canvas != null) ? canvas : Canvas.getCanvas();
+        target.beginBatch();
+        try {
+            paintFrame(f);
+        } finally {
+            target.endBatch();
+        }
+    }
+    
+    /**
+     * Copas y tapas recuerdan dónde se dibujaron, así que solo se borran y mueven las
+     * que cambiaron de lugar; lo que se dibujó en el cuadro anterior y ya no está en
+     * este se oculta. Las tapas de las copas se dibujan al final, encima de su copa.
+     */
+    private void paintFrame(Frame f) {
+        if (!f.visible) {
+            if (chromeShown) {
+                base.makeInvisible();
+                removeHeightMarkers();
+                chromeShown = false;
+            }
+            hideDrawn(null);
+            hideBands(0);
+            return;
+        }
+        if (!chromeShown || f.chrome) {
+            base.changeSize(5, f.totalWidthPx);
+            base.moveHorizontal(f.baseX - baseDrawnX);
+            base.moveVertical(f.baseY + f.viewOffsetPx - baseDrawnY);
+            baseDrawnX = f.baseX;
+            baseDrawnY = f.baseY + f.viewOffsetPx;
+            base.makeVisible();
+            createHeightMarkers(f.baseX, f.baseY + f.viewOffsetPx, f.scale, f.maxHeight);
+            chromeShown = true;
+        }
+        if (f.bands) {
+            drawBands(f);
+            return;
+        }
+        if (bandsShown) hideBands(0);
         
-        for (Lid lid : associatedLidsToDrawLater) {
-            lid.makeVisible(); 
+        Set<Object> current = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+        for (int k = 0; k < f.count; k++) {
+            Object obj = f.items[k];
+            current.add(obj);
+            if (obj instanceof Cup) {
+                ((Cup) obj).drawAt(canvas, f.x[k], f.y[k], f.w[k], f.h[k], CANVAS_WIDTH, CANVAS_HEIGHT);
+            } else {
+                ((Lid) obj).drawStandalone(canvas);
+            }
+        }
+        for (int k = 0; k < f.count; k++) {
+            if (f.lids[k] != null) {
+                f.lids[k].drawOn((Cup) f.items[k], CANVAS_WIDTH, CANVAS_HEIGHT);
+                current.add(f.lids[k]);
+            }
         }
+        hideDrawn(current);
+        drawn.clear();
+        drawn.addAll(current);
     }
     
+    /** Oculta lo dibujado en el cuadro anterior que no esté en 'keep' (null: todo). */
+    private void hideDrawn(Set<Object> keep) {
+        for (Object item : drawn) {
+            if (keep != null && keep.contains(item)) continue;
+            if (item instanceof Cup) ((Cup) item).makeInvisible();
+            else ((Lid) item).makeInvisible();
+        }
+        if (keep == null) drawn.clear();
+    }
     
     /**
-     * Calcula la altura efectiva (en cm) de la secuencia dada,
-     * permitiendo anidamiento de copas es la regla: ancho exterior = altura.
+     * Dibuja la torre por bandas: un rectángulo relleno por cada grupo de elementos
+     * anidados, con el color del más ancho. Las bandas no se superponen y cada una
+     * mide al menos un píxel de alto, así que en el canvas caben a lo sumo
+     * CANVAS_HEIGHT de ellas y la primera visible se ubica con una búsqueda binaria.
+     * Antes, 'layout' se pone al día desde la primera posición que cambió: un cuadro
+     * tras agregar o quitar en el tope no recorre la torre, pero uno tras un cambio
+     * cerca de la base (o un cambio de escala) sí la recorre una vez.
      */
-    private int calculateEffectiveHeightCm(java.util.List<Object> sequence) {
-        int accumulatedHeightCm = 0;                
-        int groupMaxTopCm = 0;                      
-        java.util.Deque<Integer> innerWidths = new java.util.ArrayDeque<>(); 
+    private void drawBands(Frame f) {
+        if (!bandsShown) {
+            hideDrawn(null);
+            bandsShown = true;
+        }
+        for (int k = 0; k < f.count; k++) {
+            if (k == bandShapes.size()) bandShapes.add(new BandShape(canvas));
+            bandShapes.get(k).show(f.x[k], f.y[k], f.w[k], f.h[k], f.colors[k]);
+        }
+        hideBands(f.count);
+    }
     
-        for (Object obj : sequence) {
-            int hCm = (obj instanceof Cup) ? ((Cup) obj).getHeight()
-                                           : ((Lid) obj).getHeight();
-            int outerCm = hCm;
-            int innerCm = Math.max(0, outerCm - 2 * WALL_CM);
-            boolean fits = innerWidths.isEmpty() || (outerCm <= innerWidths.peek());
-            if (!fits) {
-                accumulatedHeightCm += groupMaxTopCm;
-                groupMaxTopCm = 0;
-                innerWidths.clear();
-            }
-            
-            int depthCm = innerWidths.size() * WALL_CM;
-            int topThis = depthCm + hCm;
-            groupMaxTopCm = Math.max(groupMaxTopCm, topThis);
+    /** Oculta las bandas desde la posición 'from' en adelante. */
+    private void hideBands(int from) {
+        for (int b = from; b < bandShapes.size(); b++) bandShapes.get(b).hide();
+        if (from == 0) bandsShown = false;
+    }
     
-            if (obj instanceof Cup) {
-                innerWidths.push(innerCm);
-            } else {
-                if (!innerWidths.isEmpty()) innerWidths.pop();
+    /**
+     * Lo que necesita un dibujo: la vista y, por cada copa, tapa suelta o banda visible,
+     * el objeto, su geometría (px) y la tapa o el color con que se dibuja.
+     */
+    private static final class Frame {
+        boolean visible;
+        boolean chrome;
+        boolean bands;
+        int scale;
+        int maxHeight;
+        int totalWidthPx;
+        int baseX;
+        int baseY;
+        int viewOffsetPx;
+        
+        int count;
+        Object[] items = new Object[16];
+        Lid[] lids = new Lid[16];
+        String[] colors = new String[16];
+        int[] x = new int[16];
+        int[] y = new int[16];
+        int[] w = new int[16];
+        int[] h = new int[16];
+        
+        void add(Object item, Lid lid, int x, int y, int w, int h, String color) {
+            if (count == items.length) {
+                int cap = 2 * count;
+                items = Arrays.copyOf(items, cap);
+                lids = Arrays.copyOf(lids, cap);
+                colors = Arrays.copyOf(colors, cap);
+                this.x = Arrays.copyOf(this.x, cap);
+                this.y = Arrays.copyOf(this.y, cap);
+                this.w = Arrays.copyOf(this.w, cap);
+                this.h = Arrays.copyOf(this.h, cap);
             }
+            items[count] = item;
+            lids[count] = lid;
+            colors[count] = color;
+            this.x[count] = x;
+            this.y[count] = y;
+            this.w[count] = w;
+            this.h[count] = h;
+            count++;
+        }
+    }
+    
+    /** Rectángulo reutilizable de una banda, con la última posición dibujada (px). */
+    private static final class BandShape {
+        private final Rectangle rect = new Rectangle();
+        private int x = 70;
+        private int y = 15;
+        private int w = -1;
+        private int h = -1;
+        private String color;
+        private boolean shown;
+        
+        BandShape(Canvas canvas) {
+            rect.setCanvas(canvas);
+        }
+        
+        void show(int x, int y, int w, int h, String color) {
+            if (shown && x == this.x && y == this.y && w == this.w && h == this.h
+                    && color.equals(this.color)) return;
+            if (w != this.w || h != this.h) rect.changeSize(h, w);
+            if (!color.equals(this.color)) rect.changeColor(color);
+            rect.moveHorizontal(x - this.x);
+            rect.moveVertical(y - this.y);
+            rect.makeVisible();
+            this.x = x;
+            this.y = y;
+            this.w = w;
+            this.h = h;
+            this.color = color;
+            shown = true;
+        }
+        
+        void hide() {
+            if (!shown) return;
+            rect.makeInvisible();
+            shown = false;
         }
-
-        accumulatedHeightCm += groupMaxTopCm;
-        return accumulatedHeightCm;
     }
     
     //CICLO 2
@@ -492,8 +953,10 @@ public class Tower {
      *  Ejemplos de uso:
      *    swap({"cup","4"},{"cup","2"});
      */
-    public void swap(String[] o1, String[] o2) {
-        
+    public synchronized void swap(String[] o1, String[] o2) {
+        ensureCups();
+        journal.begin();
+
         if (o1 == null || o2 == null || o1.length != 2 || o2.length != 2) {
             showError("swap: invalid descriptors");
             return;
@@ -529,35 +992,54 @@ public class Tower {
     
         Cup cup1 = (Cup) items.get(idx1);
         Cup cup2 = (Cup) items.get(idx2);
-        Collections.swap(items, idx1, idx2);
-        relocateLidNextToCup(cup1);
-        relocateLidNextToCup(cup2);
-    
-        int eff = calculateEffectiveHeightCm(items);
-        if (eff > maxHeight) {                       
-            Collections.swap(items, items.indexOf(cup1), items.indexOf(cup2));
-            relocateLidNextToCup(cup1);
-            relocateLidNextToCup(cup2);
-            showError("swap would exceed max height; reverted");
+        int lid1 = lidIndexOf(cup1, idx1);
+        int lid2 = lidIndexOf(cup2, idx2);
+    
+        // Se valida con el recorrido reutilizable antes de tocar 'items', sin crear objetos.
+        if (swappedHeight(idx1, idx2, cup1, cup2, lid1, lid2) > maxHeight) {
+            showError("swap would exceed max height; not applied");
             return;
         }
+        swapCupUnits(idx1, idx2, cup1, cup2, lid1, lid2);
+    
+        if (isVisible) redraw();
+    }
+    
+    public synchronized void cover() {
+        ensureCups();
+        journal.begin();
+        coverRange(1, Integer.MAX_VALUE);
+        if (isVisible) redraw();
+    }
     
+    /**
+     * Tapa solo las copas cuyo número está entre from y to (inclusive).
+     * @param from número menor del rango.
+     * @param to número mayor del rango.
+     */
+    public synchronized void cover(int from, int to) {
+        ensureCups();
+        if (from < 1 || from > to) {
+            showError("Invalid cup range " + from + ".." + to);
+            return;
+        }
+        journal.begin();
+        coverRange(from, to);
         if (isVisible) redraw();
     }
     
-    public void cover() {
+    /** Separa todas las tapas de sus copas sin moverlas de la torre. */
+    public synchronized void uncover() {
+        ensureCups();
+        journal.begin();
         for (Object item : items) {
-            if (item instanceof Cup) {
+            if (item instanceof Cup && ((Cup) item).hasLid()) {
                 Cup cup = (Cup) item;
-                Lid matchingLid = findLid(cup.getNumber());
-                
-                if (matchingLid != null && !cup.hasLid()) {
-                    cup.setLid(matchingLid);
-                    matchingLid.attachTo(cup);
-                }
+                Lid lid = cup.getLid();
+                setCupLid(cup, null);
+                if (lid.getAssociatedCup() == cup) setLidCup(lid, null);
             }
         }
-        
         if (isVisible) redraw();
     }
     
@@ -566,36 +1048,40 @@ public class Tower {
      *    
      */
     
-    public String[][] swapToReduce() {
+    public synchronized String[][] swapToReduce() {
+        ensureCups();
         
-        java.util.ArrayList<Integer> cupIdx = new java.util.ArrayList<>();
-        for (int i = 0; i < items.size(); i++) {
-            if (items.get(i) instanceof Cup) cupIdx.add(i);
+        // Posiciones de las copas y de sus tapas en arreglos primitivos.
+        int cupCount = 0;
+        for (Object item : items) {
+            if (item instanceof Cup) cupCount++;
         }
-        if (cupIdx.size() < 2) {
+        if (cupCount < 2) {
             return new String[][] { {"none","-1"}, {"none","-1"} };
         }
+        int[] cupIdx = new int[cupCount];
+        int[] lidIdx = new int[cupCount];
+        for (int i = 0, k = 0; i < items.size(); i++) {
+            if (items.get(i) instanceof Cup) cupIdx[k++] = i;
+        }
+        lidPositions(cupIdx, lidIdx);
     
-        int baseEff = calculateEffectiveHeightCm(items);
+        int baseEff = state.height();
         int bestEff = baseEff;
         int bestA = -1, bestB = -1;            
         int bestCupNumA = -1, bestCupNumB = -1;
 
-        for (int aPos = 0; aPos < cupIdx.size(); aPos++) {
-            for (int bPos = aPos + 1; bPos < cupIdx.size(); bPos++) {
-                int ia = cupIdx.get(aPos);
-                int ib = cupIdx.get(bPos);
+        for (int aPos = 0; aPos < cupCount; aPos++) {
+            for (int bPos = aPos + 1; bPos < cupCount; bPos++) {
+                int ia = cupIdx[aPos];
+                int ib = cupIdx[bPos];
     
                 Cup ca = (Cup) items.get(ia);
                 Cup cb = (Cup) items.get(ib);
     
-                java.util.ArrayList<Object> sim = new java.util.ArrayList<>(items);
-                java.util.Collections.swap(sim, ia, ib);
-    
-                relocateLidNextToCupIn(sim, ca);
-                relocateLidNextToCupIn(sim, cb);
-    
-                int eff = calculateEffectiveHeightCm(sim);
+                // Cada par se evalúa sobre la versión persistente: crea O(log n) nodos,
+                // pero no recorre la torre como lo haría el recorrido reutilizable.
+                int eff = simulateSwap(ia, ib, ca, cb, lidIdx[aPos], lidIdx[bPos]).height();
     
                
                 if (eff < bestEff && eff <= maxHeight) {
@@ -620,49 +1106,659 @@ public class Tower {
     
     //Helpers para ciclo 2
     
-    /** En la lista 'list', reubica la tapa de 'cup' inmediatamente después de esa copa. */
-    private void relocateLidNextToCupIn(java.util.List<Object> list, Cup cup) {
-        if (cup == null || !cup.hasLid()) return;
+    /**
+     * Deja en lidIdx[k] la posición de la tapa de la copa que está en cupIdx[k], o -1
+     * si no tiene o no está en 'items'. Las tapas pegadas a su copa se ubican en O(1);
+     * las demás con una sola pasada sobre 'items' y búsquedas binarias por número (una
+     * copa solo se tapa con la tapa de su mismo número, y los números no se repiten).
+     */
+    private void lidPositions(int[] cupIdx, int[] lidIdx) {
+        int loose = 0;
+        for (int k = 0; k < cupIdx.length; k++) {
+            Cup cup = (Cup) items.get(cupIdx[k]);
+            int next = cupIdx[k] + 1;
+            if (!cup.hasLid()) {
+                lidIdx[k] = -1;
+            } else if (next < items.size() && items.get(next) == cup.getLid()) {
+                lidIdx[k] = next;
+            } else {
+                lidIdx[k] = -1;
+                loose++;
+            }
+        }
+        if (loose == 0) return;
+        
+        // Números de las copas con la tapa lejos, con su posición en cupIdx, en orden.
+        long[] keys = new long[loose];
+        for (int k = 0, j = 0; k < cupIdx.length; k++) {
+            Cup cup = (Cup) items.get(cupIdx[k]);
+            if (cup.hasLid() && lidIdx[k] == -1) keys[j++] = ((long) cup.getNumber() << 32) | k;
+        }
+        Arrays.sort(keys);
+        for (int p = 0; p < items.size(); p++) {
+            Object item = items.get(p);
+            if (!(item instanceof Lid)) continue;
+            long number = ((Lid) item).getNumber();
+            int lo = 0;
+            int hi = loose;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if ((keys[mid] >> 32) < number) lo = mid + 1;
+                else hi = mid;
+            }
+            if (lo < loose && (keys[lo] >> 32) == number) {
+                int k = (int) keys[lo];
+                if (((Cup) items.get(cupIdx[k])).getLid() == item) lidIdx[k] = p;
+            }
+        }
+    }
+    
+    /**
+     * Versión persistente de la torre tras intercambiar las copas de las posiciones
+     * ia e ib y dejar cada tapa justo encima de su copa, sin copiar 'items'.
+     * la y lb son las posiciones actuales de sus tapas (-1 si no están en 'items').
+     * Cada simulación crea los O(log n) nodos de los caminos que cambian.
+     */
+    private PersistentTower simulateSwap(int ia, int ib, Cup ca, Cup cb, int la, int lb) {
+        if (!ca.hasLid() && !cb.hasLid()) return state.swap(ia, ib);
+        if (ca.hasLid() && cb.hasLid() && la == ia + 1 && lb == ib + 1) {
+            return state.swap(ia, ib).swap(la, lb);
+        }
+        
+        PersistentTower sim = state.swap(ia, ib);
+        int posA = ib;
+        int posB = ia;
+        int lidB = cb.hasLid() ? lb : -1;
+
+        if (ca.hasLid()) {
+            if (la != -1) {
+                sim = sim.remove(la);
+                if (posA > la) posA--;
+                if (posB > la) posB--;
+                if (lidB > la) lidB--;
+            }
+            int insertAt = posA + 1;
+            sim = sim.insert(insertAt, PersistentTower.lidCode(ca.getLid().getNumber()));
+            if (posB >= insertAt) posB++;
+            if (lidB >= insertAt) lidB++;
+        }
+        if (cb.hasLid()) {
+            if (lidB != -1) {
+                sim = sim.remove(lidB);
+                if (posB > lidB) posB--;
+            }
+            sim = sim.insert(posB + 1, PersistentTower.lidCode(cb.getLid().getNumber()));
+        }
+        return sim;
+    }
+    
+    /**
+     * Intercambia las copas de las posiciones ia e ib tratando cada copa tapada
+     * como una unidad con su tapa, que queda justo encima de la copa.
+     * Si ninguna tiene tapa, o ambas tapas ya van pegadas a su copa, el cambio es O(1);
+     * si no, solo se reescribe el tramo entre las posiciones involucradas.
+     */
+    private void swapCupUnits(int ia, int ib, Cup ca, Cup cb, int la, int lb) {
+        if (!ca.hasLid() && !cb.hasLid()) {
+            swapItems(ia, ib);
+            return;
+        }
+        if (ca.hasLid() && cb.hasLid() && la == ia + 1 && lb == ib + 1) {
+            swapItems(ia, ib);
+            swapItems(la, lb);
+            return;
+        }
+        
+        int from = Math.min(ia, ib);
+        int to = Math.max(ia, ib);
+        if (la != -1) { from = Math.min(from, la); to = Math.max(to, la); }
+        if (lb != -1) { from = Math.min(from, lb); to = Math.max(to, lb); }
+        
+        ArrayList<Object> window = new ArrayList<>(to - from + 3);
+        for (int p = from; p <= to; p++) {
+            if (p == la || p == lb) continue;
+            if (p == ia) {
+                window.add(cb);
+                if (cb.hasLid()) window.add(cb.getLid());
+            } else if (p == ib) {
+                window.add(ca);
+                if (ca.hasLid()) window.add(ca.getLid());
+            } else {
+                window.add(items.get(p));
+            }
+        }
+        replaceRange(from, to + 1, window);
+    }
+    
+    /**
+     * @return posición de la tapa de 'cup' (que está en cupIdx), o -1 si no tiene
+     * o no está en 'items'. Es O(1) cuando la tapa va pegada a su copa.
+     */
+    private int lidIndexOf(Cup cup, int cupIdx) {
+        if (!cup.hasLid()) return -1;
         Lid lid = cup.getLid();
-        int lidIdx = list.indexOf(lid);
-        if (lidIdx != -1) list.remove(lidIdx);
-        int cupIdx = list.indexOf(cup);
-        if (cupIdx != -1) {
-            int insertAt = Math.min(cupIdx + 1, list.size());
-            list.add(insertAt, lid);
+        if (cupIdx + 1 < items.size() && items.get(cupIdx + 1) == lid) return cupIdx + 1;
+        return items.indexOf(lid);
+    }
+    
+    /**
+     * Quita items[cut..] y las tapas de las copas quitadas que estén más abajo.
+     * El tope se quita en bloque y esas tapas en un solo tramo, así que es O(n).
+     */
+    private void truncateItems(int cut) {
+        java.util.IdentityHashMap<Object, Boolean> lowerLids = new java.util.IdentityHashMap<>();
+        for (int p = cut; p < items.size(); p++) {
+            Object item = items.get(p);
+            if (item instanceof Cup && ((Cup) item).hasLid()) {
+                lowerLids.put(((Cup) item).getLid(), Boolean.TRUE);
+            }
+        }
+        replaceRange(cut, items.size(), new ArrayList<Object>());
+        if (lowerLids.isEmpty()) return;
+        
+        int from = cut;
+        for (int p = cut - 1; p >= 0; p--) {
+            if (lowerLids.containsKey(items.get(p))) from = p;
         }
+        if (from == cut) return;
+        ArrayList<Object> kept = new ArrayList<>(cut - from);
+        for (int p = from; p < cut; p++) {
+            Object item = items.get(p);
+            if (!lowerLids.containsKey(item)) kept.add(item);
+        }
+        replaceRange(from, cut, kept);
+    }
+    
+    /** Quita la copa de la posición j junto con su tapa. */
+    private void removeCupAt(int j) {
+        Cup cup = (Cup) items.get(j);
+        int lidIdx = lidIndexOf(cup, j);
+        if (lidIdx != -1) {
+            pool.release((Lid) removeItemAt(lidIdx));
+            if (lidIdx < j) j--;
+        }
+        removeItemAt(j);
+        pool.release(cup);
+    }
+    
+    /**
+     * Agrega en el tope la copa n, reutilizando una retirada si el pool la tiene.
+     * Su tapa vieja se quita con setCupLid, ya dentro de la torre, para que deshacer
+     * la restaure y 'lidedCups' siga al día.
+     */
+    private void addCup(int n, PersistentTower next) {
+        Cup cup = pool.takeCup(n);
+        if (cup == null) cup = new Cup(n);
+        addItem(cup, next);
+        if (cup.hasLid()) setCupLid(cup, null);
+    }
+    
+    /** @return la tapa n, reutilizando una retirada si el pool la tiene. */
+    private Lid obtainLid(int n) {
+        Lid lid = pool.takeLid(n);
+        if (lid == null) return new Lid(n);
+        if (lid.isOnCup()) setLidCup(lid, null);
+        return lid;
     }
     
-    private Lid findLid(int number) {
+    /**
+     * Asocia cada copa sin tapa con números en [from, to] a la tapa de su mismo número.
+     * Las tapas se indexan por número en un HashMap en una sola pasada, así que es O(n)
+     * sin importar qué tan grandes sean los números.
+     */
+    private void coverRange(int from, int to) {
+        HashMap<Integer, Lid> lidsByNumber = new HashMap<>();
         for (Object item : items) {
-            if (item instanceof Lid && ((Lid) item).getNumber() == number) {
-                return (Lid) item;
+            if (item instanceof Lid) {
+                int number = ((Lid) item).getNumber();
+                if (number < from || number > to) continue;
+                if (!lidsByNumber.containsKey(number)) lidsByNumber.put(number, (Lid) item);
+            }
+        }
+        if (lidsByNumber.isEmpty()) return;
+        for (Object item : items) {
+            if (item instanceof Cup) {
+                Cup cup = (Cup) item;
+                int number = cup.getNumber();
+                if (cup.hasLid() || number < from || number > to) continue;
+                Lid matchingLid = lidsByNumber.get(number);
+                if (matchingLid != null) {
+                    setCupLid(cup, matchingLid);
+                    setLidCup(matchingLid, cup);
+                }
             }
         }
-        return null;
     }
     
-    /** Coloca la tapa asociada (si existe) inmediatamente después de su copa en 'items'. */
-    private void relocateLidNextToCup(Cup cup) {
-        if (cup == null || !cup.hasLid()) return;
-        Lid lid = cup.getLid();
+    //Consultas hipotéticas: no modifican la torre ni crean objetos.
     
-        // Si la tapa está en la lista, retirarla de su posición actual
-        int lidIdx = items.indexOf(lid);
-        if (lidIdx != -1) items.remove(lidIdx);
+    /**
+     * @return altura efectiva que tendría la torre si se agregara la copa n,
+     * o -1 si esa copa ya existe.
+     */
+    public synchronized int heightIfPushCup(int n) {
+        ensureCups();
+        if (n <= 0 || cupExists(n)) return -1;
+        return state.heightIfPush(PersistentTower.cupCode(n));
+    }
     
-        // Insertarla justo después de la copa
-        int cupIdx = items.indexOf(cup);
-        if (cupIdx != -1) {
-            int insertAt = Math.min(cupIdx + 1, items.size());
-            items.add(insertAt, lid);
+    /**
+     * @return altura efectiva que tendría la torre si se agregara la tapa n,
+     * o -1 si esa tapa ya existe.
+     */
+    public synchronized int heightIfPushLid(int n) {
+        ensureCups();
+        if (n <= 0 || lidExists(n)) return -1;
+        return state.heightIfPush(PersistentTower.lidCode(n));
+    }
+    
+    /**
+     * @return altura efectiva que tendría la torre si se quitara la copa n (con su tapa),
+     * o -1 si la copa no está.
+     */
+    public synchronized int heightIfRemoveCup(int n) {
+        ensureCups();
+        int cupIdx = indexOfCup(n);
+        if (cupIdx == -1) return -1;
+        Cup cup = (Cup) items.get(cupIdx);
+        int lidIdx = cup.hasLid() ? items.indexOf(cup.getLid()) : -1;
+        
+        scratch.reset();
+        for (int p = 0; p < items.size(); p++) {
+            if (p != cupIdx && p != lidIdx) feedItem(items.get(p));
         }
+        return (int) scratch.height();
     }
     
-    private void showError(String message) {
-        if (isVisible) {
-            JOptionPane.showMessageDialog(null, message, 
-                "Tower Error", JOptionPane.ERROR_MESSAGE);
+    /**
+     * @return altura efectiva que tendría la torre si se quitara la tapa n,
+     * o -1 si la tapa no está.
+     */
+    public synchronized int heightIfRemoveLid(int n) {
+        ensureCups();
+        int lidIdx = -1;
+        for (int p = 0; p < items.size() && lidIdx == -1; p++) {
+            Object item = items.get(p);
+            if (item instanceof Lid && ((Lid) item).getNumber() == n) lidIdx = p;
+        }
+        if (lidIdx == -1) return -1;
+        
+        scratch.reset();
+        for (int p = 0; p < items.size(); p++) {
+            if (p != lidIdx) feedItem(items.get(p));
+        }
+        return (int) scratch.height();
+    }
+    
+    /**
+     * @return altura efectiva que tendría la torre si se intercambiaran las copas
+     * n1 y n2 (con la misma reubicación de tapas que hace swap), o -1 si alguna no está.
+     * No aplica el límite de maxHeight.
+     */
+    public synchronized int heightIfSwap(int n1, int n2) {
+        ensureCups();
+        int ia = indexOfCup(n1);
+        int ib = indexOfCup(n2);
+        if (ia == -1 || ib == -1) return -1;
+        if (ia == ib) return state.height();
+        
+        Cup ca = (Cup) items.get(ia);
+        Cup cb = (Cup) items.get(ib);
+        return swappedHeight(ia, ib, ca, cb, lidIndexOf(ca, ia), lidIndexOf(cb, ib));
+    }
+    
+    /**
+     * Altura que tendría la torre tras swapCupUnits(ia, ib, ca, cb, la, lb), medida con
+     * el recorrido reutilizable en O(n) y sin crear objetos.
+     */
+    private int swappedHeight(int ia, int ib, Cup ca, Cup cb, int la, int lb) {
+        scratch.reset();
+        for (int p = 0; p < items.size(); p++) {
+            if (p == la || p == lb) continue;
+            if (p == ia) {
+                feedCupWithLid(cb);
+            } else if (p == ib) {
+                feedCupWithLid(ca);
+            } else {
+                feedItem(items.get(p));
+            }
+        }
+        return (int) scratch.height();
+    }
+    
+    private int indexOfCup(int number) {
+        for (int p = 0; p < items.size(); p++) {
+            Object item = items.get(p);
+            if (item instanceof Cup && ((Cup) item).getNumber() == number) return p;
+        }
+        return -1;
+    }
+    
+    /** La copa reubicada queda con su tapa inmediatamente encima. */
+    private void feedCupWithLid(Cup cup) {
+        scratch.add(cup.getHeight(), true);
+        if (cup.hasLid()) scratch.add(cup.getLid().getHeight(), false);
+    }
+    
+    private void feedItem(Object obj) {
+        if (obj instanceof Cup) scratch.add(((Cup) obj).getHeight(), true);
+        else scratch.add(((Lid) obj).getHeight(), false);
+    }
+    
+    /**
+     * Escribe la torre como SVG, elemento por elemento, sin armar una imagen en
+     * memoria (ver TowerSvg). La unidad del dibujo es el cm. Con el candado de la
+     * torre solo se toman la versión persistente y las copas tapadas; la escritura se
+     * hace después, así que las operaciones no esperan a que termine.
+     * @param out destino; no se cierra.
+     * @param pixelsPerCm tamaño con que se muestra un cm, debe ser positivo.
+     */
+    public void exportSvg(Writer out, int pixelsPerCm) throws IOException {
+        PersistentTower tower;
+        int[] covered;
+        synchronized (this) {
+            ensureCups();
+            tower = state;
+            covered = lidedCups();
+        }
+        TowerSvg.write(tower, covered, out, pixelsPerCm);
+    }
+    
+    /**
+     * Igual a exportSvg(Writer, int), pero escribe en un archivo.
+     * @param file archivo destino; se reemplaza si existe.
+     */
+    public void exportSvg(Path file, int pixelsPerCm) throws IOException {
+        try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            exportSvg(out, pixelsPerCm);
+        }
+    }
+    
+    /**
+     * @return versión persistente del estado actual. Es inmutable, se obtiene en O(1)
+     * y sigue siendo válida aunque la torre cambie después.
+     */
+    public synchronized PersistentTower snapshot() {
+        ensureCups();
+        return state;
+    }
+    
+    /** Deshace la última operación registrada en la bitácora. */
+    public synchronized void undo() {
+        ensureCups();
+        TowerJournal.Entry entry = journal.takeUndo();
+        if (entry == null) {
+            showError("Nothing to undo");
+            return;
+        }
+        journal.setPaused(true);
+        for (int k = entry.size() - 1; k >= 0; k--) applyEdit(entry.get(k), false);
+        journal.setPaused(false);
+        if (isVisible) redraw();
+    }
+    
+    /** Vuelve a aplicar la última operación deshecha. */
+    public synchronized void redo() {
+        ensureCups();
+        TowerJournal.Entry entry = journal.takeRedo();
+        if (entry == null) {
+            showError("Nothing to redo");
+            return;
+        }
+        journal.setPaused(true);
+        for (int k = 0; k < entry.size(); k++) applyEdit(entry.get(k), true);
+        journal.setPaused(false);
+        if (isVisible) redraw();
+    }
+    
+    public synchronized boolean canUndo() {
+        return journal.canUndo();
+    }
+    
+    public synchronized boolean canRedo() {
+        return journal.canRedo();
+    }
+    
+    /**
+     * Cambia la memoria máxima de la bitácora, medida en cambios elementales.
+     * @param budget presupuesto, 0 desactiva deshacer/rehacer.
+     */
+    public synchronized void setJournalBudget(int budget) {
+        journal.setBudget(budget);
+    }
+    
+    /** Aplica un cambio elemental de la bitácora hacia adelante (rehacer) o hacia atrás (deshacer). */
+    private void applyEdit(TowerJournal.Edit e, boolean forward) {
+        switch (e.kind) {
+            case TowerJournal.INSERT:
+                if (forward) insertItem(e.i, e.target);
+                else removeItemAt(e.i);
+                break;
+            case TowerJournal.REMOVE:
+                if (forward) removeItemAt(e.i);
+                else insertItem(e.i, e.target);
+                break;
+            case TowerJournal.SWAP:
+                swapItems(e.i, e.j);
+                break;
+            case TowerJournal.REVERSE:
+                reverseItems();
+                break;
+            case TowerJournal.REPLACE:
+                @SuppressWarnings("unchecked")
+                ArrayList<Object> list = (ArrayList<Object>) (forward ? e.after : e.before);
+                replaceItems(list);
+                break;
+            case TowerJournal.CUP_LID:
+                setCupLid((Cup) e.target, (Lid) (forward ? e.after : e.before));
+                break;
+            case TowerJournal.LID_CUP:
+                setLidCup((Lid) e.target, (Cup) (forward ? e.after : e.before));
+                break;
+            default:
+                throw new IllegalStateException("Unknown journal edit " + e.kind);
+        }
+    }
+    
+    //Helpers de 'items': toda modificación pasa por aquí para mantener 'state',
+    //'lidedCups' y los números presentes al día, aumentar 'version', bajar 'layoutFrom'
+    //y dejar registro en la bitácora.
+    
+    /**
+     * Agrega en el tope con la versión persistente 'next'. Quien llama valida antes con
+     * PersistentTower.heightIfPush, así que 'next' solo se crea si se acepta.
+     */
+    private void addItem(Object item, PersistentTower next) {
+        items.add(item);
+        state = next;
+        trackAdded(item);
+        version++;
+        layoutFrom = Math.min(layoutFrom, items.size() - 1);
+        journal.record(TowerJournal.INSERT, items.size() - 1, 0, item, null, null);
+    }
+    
+    private void insertItem(int index, Object item) {
+        items.add(index, item);
+        state = state.insert(index, codeOf(item));
+        trackAdded(item);
+        version++;
+        layoutFrom = Math.min(layoutFrom, index);
+        journal.record(TowerJournal.INSERT, index, 0, item, null, null);
+    }
+    
+    private Object removeItemAt(int index) {
+        Object removed = items.remove(index);
+        state = state.remove(index);
+        trackRemoved(removed);
+        version++;
+        layoutFrom = Math.min(layoutFrom, index);
+        journal.record(TowerJournal.REMOVE, index, 0, removed, null, null);
+        return removed;
+    }
+    
+    /**
+     * Reemplaza items[from, to) por 'replacement'. La lista se modifica en bloque;
+     * el índice persistente y la bitácora se actualizan elemento por elemento.
+     */
+    private void replaceRange(int from, int to, ArrayList<Object> replacement) {
+        for (int p = to - 1; p >= from; p--) {
+            state = state.remove(p);
+            trackRemoved(items.get(p));
+            journal.record(TowerJournal.REMOVE, p, 0, items.get(p), null, null);
+        }
+        items.subList(from, to).clear();
+        version++;
+        layoutFrom = Math.min(layoutFrom, from);
+        items.addAll(from, replacement);
+        for (int k = 0; k < replacement.size(); k++) {
+            state = state.insert(from + k, codeOf(replacement.get(k)));
+            trackAdded(replacement.get(k));
+            journal.record(TowerJournal.INSERT, from + k, 0, replacement.get(k), null, null);
+        }
+    }
+    
+    private void swapItems(int i, int j) {
+        Collections.swap(items, i, j);
+        version++;
+        layoutFrom = Math.min(layoutFrom, Math.min(i, j));
+        state = state.swap(i, j);
+        journal.record(TowerJournal.SWAP, i, j, null, null, null);
+    }
+    
+    private void reverseItems() {
+        Collections.reverse(items);
+        version++;
+        layoutFrom = 0;
+        rebuildState();
+        journal.record(TowerJournal.REVERSE, 0, 0, null, null, null);
+    }
+    
+    /** Reemplaza la lista completa; la anterior queda en la bitácora sin copiarse. */
+    private void replaceItems(ArrayList<Object> newItems) {
+        ArrayList<Object> old = items;
+        items = newItems;
+        version++;
+        layoutFrom = 0;
+        rebuildState();
+        lidedCups.clear();
+        lidedHugeCups.clear();
+        lidedVersion++;
+        cupNumbers.clear();
+        lidNumbers.clear();
+        for (Object item : items) trackAdded(item);
+        journal.record(TowerJournal.REPLACE, 0, 0, null, old, newItems);
+    }
+    
+    private void setCupLid(Cup cup, Lid lid) {
+        journal.record(TowerJournal.CUP_LID, 0, 0, cup, cup.getLid(), lid);
+        cup.setLid(lid);
+        version++;
+        setLided(cup.getNumber(), lid != null);
+    }
+    
+    private void setLidCup(Lid lid, Cup cup) {
+        journal.record(TowerJournal.LID_CUP, 0, 0, lid, lid.getAssociatedCup(), cup);
+        lid.link(cup);
+        version++;
+    }
+    
+    /** Crea las copas pendientes del modo perezoso, si las hay. No queda en la bitácora. */
+    private void ensureCups() {
+        if (lazyCups == 0) return;
+        int n = lazyCups;
+        lazyCups = 0;
+        items.ensureCapacity(n);
+        for (int i = 1; i <= n; i++) items.add(new Cup(i));
+        layoutFrom = 0;
+        cupNumbers.set(1, (int) Math.min(n + 1L, INDEXED_NUMBERS));
+        rebuildState();
+    }
+    
+    private void trackAdded(Object item) {
+        if (item instanceof Cup) {
+            Cup cup = (Cup) item;
+            if (isIndexed(cup.getNumber())) cupNumbers.set(cup.getNumber());
+            if (cup.hasLid()) setLided(cup.getNumber(), true);
+        } else {
+            int n = ((Lid) item).getNumber();
+            if (isIndexed(n)) lidNumbers.set(n);
+        }
+    }
+    
+    private void trackRemoved(Object item) {
+        if (item instanceof Cup) {
+            int n = ((Cup) item).getNumber();
+            if (isIndexed(n)) cupNumbers.clear(n);
+            setLided(n, false);
+        } else {
+            int n = ((Lid) item).getNumber();
+            if (isIndexed(n)) lidNumbers.clear(n);
+        }
+    }
+    
+    /** Marca la copa n como tapada o no, en el conjunto que le corresponde a su número. */
+    private void setLided(int n, boolean lided) {
+        boolean changed;
+        if (isIndexed(n)) {
+            changed = lidedCups.get(n) != lided;
+            lidedCups.set(n, lided);
+        } else if (lided) {
+            changed = lidedHugeCups.add(n);
+        } else {
+            changed = lidedHugeCups.remove(n);
+        }
+        if (changed) lidedVersion++;
+    }
+    
+    /** Reconstruye 'state' después de cambios masivos sobre 'items' (O(n)). */
+    private void rebuildState() {
+        int[] codes = new int[items.size()];
+        for (int i = 0; i < codes.length; i++) codes[i] = codeOf(items.get(i));
+        state = PersistentTower.of(codes);
+    }
+    
+    /**
+     * Ordena de mayor a menor número, de forma estable. Si los números son casi
+     * consecutivos (el mayor es O(n)) usa ordenamiento por conteo en O(n); si hay
+     * números muy grandes, como una tapa suelta enorme, compara en O(n log n).
+     */
+    private static Object[] sortByNumberDescending(ArrayList<Object> list) {
+        int max = 0;
+        for (Object item : list) max = Math.max(max, PersistentTower.number(codeOf(item)));
+        
+        if (max > 2L * list.size() + 64) {
+            Object[] sorted = list.toArray();
+            Arrays.sort(sorted, new Comparator<Object>() {
+                public int compare(Object a, Object b) {
+                    return Integer.compare(PersistentTower.number(codeOf(b)), PersistentTower.number(codeOf(a)));
+                }
+            });
+            return sorted;
+        }
+        
+        int[] start = new int[max + 2];
+        for (Object item : list) start[max - PersistentTower.number(codeOf(item)) + 1]++;
+        for (int k = 1; k < start.length; k++) start[k] += start[k - 1];
+        
+        Object[] sorted = new Object[list.size()];
+        for (Object item : list) sorted[start[max - PersistentTower.number(codeOf(item))]++] = item;
+        return sorted;
+    }
+    
+    private static int codeOf(Object item) {
+        if (item instanceof Cup) return PersistentTower.cupCode(((Cup) item).getNumber());
+        return PersistentTower.lidCode(((Lid) item).getNumber());
+    }
+    
+    /** Muestra el error en el hilo de Swing sin bloquear a quien llamó (ni el candado). */
+    private void showError(final String message) {
+        if (isVisible && !isOffscreen()) {
+            SwingUtilities.invokeLater(new Runnable() {
+                public void run() {
+                    JOptionPane.showMessageDialog(null, message, 
+                        "Tower Error", JOptionPane.ERROR_MESSAGE);
+                }
+            });
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,167 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
+/**
+ * Bitácora de operaciones de Tower para poder deshacer y rehacer.
+ *
+ * Cada operación pública de Tower se guarda como la lista de cambios elementales
+ * que hizo sobre la torre (insertar o quitar un elemento, intercambiar dos
+ * posiciones, asociar una tapa, ...). Deshacer es aplicar esos cambios al revés y
+ * rehacer es aplicarlos otra vez, así que nunca se copia el estado completo.
+ *
+ * La memoria está acotada por un presupuesto medido en cambios guardados; cuando
+ * se supera se descartan las operaciones más antiguas.
+ *
+ * @author Julian Morales - Sergio Buitrago
+ */
+public class TowerJournal {
+    public static final int DEFAULT_BUDGET = 10000;
+
+    static final int INSERT = 0;
+    static final int REMOVE = 1;
+    static final int SWAP = 2;
+    static final int REVERSE = 3;
+    static final int REPLACE = 4;
+    static final int CUP_LID = 5;
+    static final int LID_CUP = 6;
+
+    private final ArrayDeque<Entry> undoStack;
+    private final ArrayDeque<Entry> redoStack;
+    private Entry pending;
+    // Hay una operación abierta; su Entry se crea recién con el primer cambio, así que
+    // una operación rechazada no crea objetos.
+    private boolean open;
+    private boolean paused;
+    private int budget;
+    private int used;
+
+    /**
+     * Crea una bitácora vacía.
+     * @param budget cantidad máxima de cambios elementales que se guardan.
+     */
+    public TowerJournal(int budget) {
+        if (budget < 0) throw new IllegalArgumentException("Journal budget must be >= 0");
+        this.undoStack = new ArrayDeque<>();
+        this.redoStack = new ArrayDeque<>();
+        this.budget = budget;
+    }
+
+    public boolean canUndo() {
+        flush();
+        return !undoStack.isEmpty();
+    }
+
+    public boolean canRedo() {
+        flush();
+        return !redoStack.isEmpty();
+    }
+
+    /** @return cambios elementales guardados actualmente (deshacer + rehacer). */
+    public int used() {
+        flush();
+        return used;
+    }
+
+    public int getBudget() {
+        return budget;
+    }
+
+    public void setBudget(int budget) {
+        if (budget < 0) throw new IllegalArgumentException("Journal budget must be >= 0");
+        this.budget = budget;
+        flush();
+        trim();
+    }
+
+    /** Cierra la operación anterior y empieza a registrar una nueva. */
+    void begin() {
+        flush();
+        open = true;
+    }
+
+    /** Mientras está pausada (al deshacer o rehacer) la bitácora no registra nada. */
+    void setPaused(boolean paused) {
+        this.paused = paused;
+    }
+
+    void record(int kind, int i, int j, Object target, Object before, Object after) {
+        if (paused || !open) return;
+        if (pending == null) pending = new Entry();
+        pending.edits.add(new Edit(kind, i, j, target, before, after));
+        pending.weight += (kind == REPLACE) ? Math.max(1, ((ArrayList<?>) before).size()) : 1;
+    }
+
+    /** @return la última operación, ya movida a la pila de rehacer, o null. */
+    Entry takeUndo() {
+        flush();
+        Entry e = undoStack.pollFirst();
+        if (e != null) redoStack.addFirst(e);
+        return e;
+    }
+
+    /** @return la última operación deshecha, ya movida a la pila de deshacer, o null. */
+    Entry takeRedo() {
+        flush();
+        Entry e = redoStack.pollFirst();
+        if (e != null) undoStack.addFirst(e);
+        return e;
+    }
+
+    private void flush() {
+        open = false;
+        if (pending == null) return;
+        Entry e = pending;
+        pending = null;
+
+        for (Entry discarded : redoStack) used -= discarded.weight;
+        redoStack.clear();
+        undoStack.addFirst(e);
+        used += e.weight;
+        trim();
+    }
+
+    private void trim() {
+        while (used > budget && !undoStack.isEmpty()) {
+            used -= undoStack.pollLast().weight;
+        }
+        while (used > budget && !redoStack.isEmpty()) {
+            used -= redoStack.pollLast().weight;
+        }
+    }
+
+    /** Cambios elementales de una operación, en el orden en que se hicieron. */
+    static final class Entry {
+        private final ArrayList<Edit> edits = new ArrayList<>(4);
+        private int weight;
+
+        int size() {
+            return edits.size();
+        }
+
+        Edit get(int k) {
+            return edits.get(k);
+        }
+    }
+
+    /**
+     * Cambio elemental. Según el tipo usa las posiciones i, j, el objeto afectado
+     * y sus valores antes y después del cambio.
+     */
+    static final class Edit {
+        final int kind;
+        final int i;
+        final int j;
+        final Object target;
+        final Object before;
+        final Object after;
+
+        private Edit(int kind, int i, int j, Object target, Object before, Object after) {
+            this.kind = kind;
+            this.i = i;
+            this.j = j;
+            this.target = target;
+            this.before = before;
+            this.after = after;
+        }
+    }
+}
@@ -0,0 +1,396 @@
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Geometría (en píxeles) de los elementos de una torre.
+ *
+ * Recorre la secuencia una sola vez con el mismo {@link NestingWalker} que la altura
+ * efectiva y la exportación a SVG (una copa abre un nivel, una tapa lo cierra, un
+ * elemento que no cabe en el nivel abierto empieza un grupo nuevo encima); el nodo de
+ * cada nivel es la posición de su copa. Deja x, y, ancho y alto de cada
+ * elemento en arreglos primitivos. El resultado se guarda junto con la versión de la
+ * torre y la escala con que se calculó, y solo se recalcula cuando alguna cambia.
+ *
+ * Junto a cada elemento queda también el estado del recorrido después de él (banda,
+ * tope del grupo, nivel abierto y elemento más ancho de la banda). Como los niveles
+ * no se pisan, el recorrido se retoma desde la primera posición que cambió: agregar o
+ * quitar en el tope cuesta O(1), y en general un cambio en la posición i cuesta
+ * O(n - i), no O(n).
+ *
+ * Por último, un índice por bloques resume cada BLOCK elementos (y cada BLOCK bloques
+ * en el nivel siguiente) con los extremos de sus rectángulos. Con él
+ * {@link #nextInView(int, int, int, int, int)} salta los bloques que no pueden cruzar
+ * la vista, como las copas que envuelven a la vista con la base y el borde afuera, y
+ * recorrer una banda de n copas anidadas no cuesta O(n).
+ *
+ * Además agrupa los elementos en bandas: cada grupo de elementos anidados unos en
+ * otros ocupa una franja horizontal propia, y su rectángulo envolvente es la banda.
+ * Las bandas no se superponen y van de abajo hacia arriba; sirven para dibujar torres
+ * en las que las copas miden apenas uno o dos píxeles.
+ *
+ * @author Julian Morales - Sergio Buitrago
+ */
+public final class TowerLayout {
+    private static final int WALL_CM = 1;
+    private static final int BLOCK = 64;
+
+    // Campos de cada bloque del índice: extremos (en y) de los elementos completos,
+    // de la pared izquierda y la derecha (en x), de la franja de la tapa y de la base.
+    private static final int FIELDS = 8;
+    private static final int SPAN_TOP = 0;
+    private static final int SPAN_BOTTOM = 1;
+    private static final int LEFT_WALL_END = 2;
+    private static final int RIGHT_WALL_START = 3;
+    private static final int LID_TOP = 4;
+    private static final int LID_BOTTOM = 5;
+    private static final int BASE_TOP = 6;
+    private static final int BASE_BOTTOM = 7;
+
+    private final NestingWalker walker = new NestingWalker();
+
+    private int[] x = new int[16];
+    private int[] y = new int[16];
+    private int[] w = new int[16];
+    private int[] h = new int[16];
+    private int size;
+    private int heightCm;
+
+    // Estado del recorrido después de cada elemento, para retomarlo desde ahí.
+    private int[] bandOf = new int[16];
+    private int[] groupAfter = new int[16];
+    private int[] topAfter = new int[16];
+    private int[] depthAfter = new int[16];
+    private int[] widestAfter = new int[16];
+
+    private int[] bandX = new int[16];
+    private int[] bandY = new int[16];
+    private int[] bandW = new int[16];
+    private int[] bandH = new int[16];
+    private int[] bandItem = new int[16];
+    private int[] bandFirst = new int[16];
+    private int[] bandAcc = new int[16];
+    private int bandCount;
+
+    // Índice por bloques: blocks[nivel] guarda FIELDS enteros por bloque.
+    private int[][] blocks = new int[0][];
+    private int levels;
+
+    private long version = -1;
+    private int scale = -1;
+    private int baseX;
+    private int baseY;
+    private int widthPx;
+
+    /**
+     * Deja al día la geometría de 'items' si la versión o la escala cambiaron,
+     * recalculando todo.
+     * @param items elementos de la torre (Cup o Lid), de abajo hacia arriba.
+     * @param version versión de la torre a la que corresponde 'items'.
+     * @param scale píxeles por cm.
+     * @param baseX x de la esquina izquierda de la base.
+     * @param baseY y de la base (el suelo de la torre).
+     * @param widthPx ancho de la base en píxeles; los elementos se centran sobre ella.
+     * @return true si hubo que recalcular.
+     */
+    public boolean update(List<Object> items, long version, int scale, int baseX, int baseY, int widthPx) {
+        return update(items, version, 0, scale, baseX, baseY, widthPx);
+    }
+
+    /**
+     * Deja al día la geometría de 'items' si la versión o la escala cambiaron,
+     * recalculando solo desde la posición 'from'. Si cambia la escala, la base o su
+     * ancho, se recalcula todo.
+     * @param from primera posición que pudo cambiar desde el cálculo anterior; las
+     *             anteriores deben ser los mismos elementos de entonces.
+     * @return true si hubo que recalcular.
+     */
+    public boolean update(List<Object> items, long version, int from, int scale, int baseX, int baseY,
+                          int widthPx) {
+        if (version == this.version && scale == this.scale) return false;
+        if (scale != this.scale || baseX != this.baseX || baseY != this.baseY || widthPx != this.widthPx) {
+            from = 0;
+        }
+        this.version = version;
+        this.scale = scale;
+        this.baseX = baseX;
+        this.baseY = baseY;
+        this.widthPx = widthPx;
+
+        int n = items.size();
+        if (n > x.length) {
+            int cap = Math.max(n, 2 * x.length);
+            x = Arrays.copyOf(x, cap);
+            y = Arrays.copyOf(y, cap);
+            w = Arrays.copyOf(w, cap);
+            h = Arrays.copyOf(h, cap);
+            bandOf = Arrays.copyOf(bandOf, cap);
+            groupAfter = Arrays.copyOf(groupAfter, cap);
+            topAfter = Arrays.copyOf(topAfter, cap);
+            depthAfter = Arrays.copyOf(depthAfter, cap);
+            widestAfter = Arrays.copyOf(widestAfter, cap);
+        }
+        from = Math.max(0, Math.min(from, Math.min(size, n)));
+        size = n;
+
+        int widest;
+        int first;
+        if (from == 0) {
+            walker.reset();
+            widest = -1;
+            first = 0;
+            bandCount = 0;
+        } else {
+            // Retoma después del elemento from - 1; su banda se vuelve a cerrar.
+            int j = from - 1;
+            bandCount = bandOf[j];
+            walker.restore(bandAcc[bandCount], groupAfter[j], topAfter[j], depthAfter[j]);
+            widest = widestAfter[j];
+            first = bandFirst[bandCount];
+        }
+        for (int i = from; i < n; i++) {
+            Object obj = items.get(i);
+            boolean cup = obj instanceof Cup;
+            int hCm = cup ? ((Cup) obj).getHeight() : ((Lid) obj).getHeight();
+
+            long groupBefore = walker.group();
+            if (walker.place(hCm)) {
+                closeBand(first, widest, (int) walker.acc() - (int) groupBefore, (int) groupBefore, scale, baseY);
+                widest = -1;
+                first = i;
+            }
+            if (widest < 0 || hCm * scale > w[widest]) widest = i;
+            int acc = (int) walker.acc();
+            int depthCm = walker.depth() * WALL_CM;
+
+            w[i] = hCm * scale;
+            h[i] = hCm * scale;
+            x[i] = baseX + (widthPx - w[i]) / 2;
+            y[i] = baseY - (acc + depthCm) * scale - h[i];
+
+            if (cup) walker.open(i, hCm);
+            else walker.close();
+            bandOf[i] = bandCount;
+            groupAfter[i] = (int) walker.group();
+            topAfter[i] = walker.top();
+            depthAfter[i] = walker.depth();
+            widestAfter[i] = widest;
+        }
+        if (widest >= 0) closeBand(first, widest, (int) walker.acc(), (int) walker.group(), scale, baseY);
+        heightCm = (int) walker.height();
+        indexFrom(items, from);
+        return true;
+    }
+
+    /** Rehace los bloques del índice que contienen la posición 'from' o alguna posterior. */
+    private void indexFrom(List<Object> items, int from) {
+        int count = size;
+        int first = from;
+        int level = 0;
+        while (true) {
+            int nodes = (count + BLOCK - 1) / BLOCK;
+            if (level == blocks.length) blocks = Arrays.copyOf(blocks, level + 1);
+            if (blocks[level] == null || blocks[level].length < nodes * FIELDS) {
+                int cap = Math.max(nodes, (blocks[level] == null) ? 0 : 2 * blocks[level].length / FIELDS);
+                blocks[level] = (blocks[level] == null) ? new int[cap * FIELDS] : Arrays.copyOf(blocks[level], cap * FIELDS);
+            }
+            int[] node = blocks[level];
+            for (int k = first / BLOCK; k < nodes; k++) {
+                int b = k * FIELDS;
+                clearBlock(node, b);
+                int end = Math.min(count, (k + 1) * BLOCK);
+                for (int c = k * BLOCK; c < end; c++) {
+                    if (level == 0) addItem(node, b, c, items.get(c) instanceof Cup);
+                    else addBlock(node, b, blocks[level - 1], c * FIELDS);
+                }
+            }
+            levels = level + 1;
+            if (nodes <= 1) break;
+            count = nodes;
+            first /= BLOCK;
+            level++;
+        }
+    }
+
+    private static void clearBlock(int[] node, int b) {
+        node[b + SPAN_TOP] = Integer.MAX_VALUE;
+        node[b + SPAN_BOTTOM] = Integer.MIN_VALUE;
+        node[b + LEFT_WALL_END] = Integer.MIN_VALUE;
+        node[b + RIGHT_WALL_START] = Integer.MAX_VALUE;
+        node[b + LID_TOP] = Integer.MAX_VALUE;
+        node[b + LID_BOTTOM] = Integer.MIN_VALUE;
+        node[b + BASE_TOP] = Integer.MAX_VALUE;
+        node[b + BASE_BOTTOM] = Integer.MIN_VALUE;
+    }
+
+    /**
+     * Suma el elemento i al bloque. Los rectángulos son los que dibuja Cup (base y
+     * paredes del grosor de un cm, tapa de Lid.thicknessOn); una tapa suelta se dibuja
+     * aparte, así que su bloque nunca se salta.
+     */
+    private void addItem(int[] node, int b, int i, boolean cup) {
+        if (!cup) {
+            node[b + SPAN_TOP] = Integer.MIN_VALUE;
+            node[b + SPAN_BOTTOM] = Integer.MAX_VALUE;
+            node[b + LEFT_WALL_END] = Integer.MAX_VALUE;
+            return;
+        }
+        int wall = Math.max(1, scale);
+        int lid = Lid.thicknessOn(h[i]);
+        node[b + SPAN_TOP] = Math.min(node[b + SPAN_TOP], y[i]);
+        node[b + SPAN_BOTTOM] = Math.max(node[b + SPAN_BOTTOM], y[i] + Math.max(h[i], lid));
+        node[b + LEFT_WALL_END] = Math.max(node[b + LEFT_WALL_END], x[i] + wall);
+        node[b + RIGHT_WALL_START] = Math.min(node[b + RIGHT_WALL_START], x[i] + w[i] - wall);
+        node[b + LID_TOP] = Math.min(node[b + LID_TOP], y[i]);
+        node[b + LID_BOTTOM] = Math.max(node[b + LID_BOTTOM], y[i] + lid);
+        node[b + BASE_TOP] = Math.min(node[b + BASE_TOP], y[i] + h[i] - wall);
+        node[b + BASE_BOTTOM] = Math.max(node[b + BASE_BOTTOM], y[i] + h[i]);
+    }
+
+    private static void addBlock(int[] node, int b, int[] child, int c) {
+        node[b + SPAN_TOP] = Math.min(node[b + SPAN_TOP], child[c + SPAN_TOP]);
+        node[b + SPAN_BOTTOM] = Math.max(node[b + SPAN_BOTTOM], child[c + SPAN_BOTTOM]);
+        node[b + LEFT_WALL_END] = Math.max(node[b + LEFT_WALL_END], child[c + LEFT_WALL_END]);
+        node[b + RIGHT_WALL_START] = Math.min(node[b + RIGHT_WALL_START], child[c + RIGHT_WALL_START]);
+        node[b + LID_TOP] = Math.min(node[b + LID_TOP], child[c + LID_TOP]);
+        node[b + LID_BOTTOM] = Math.max(node[b + LID_BOTTOM], child[c + LID_BOTTOM]);
+        node[b + BASE_TOP] = Math.min(node[b + BASE_TOP], child[c + BASE_TOP]);
+        node[b + BASE_BOTTOM] = Math.max(node[b + BASE_BOTTOM], child[c + BASE_BOTTOM]);
+    }
+
+    /**
+     * @return true si ningún elemento del bloque puede cruzar la vista: todos quedan
+     *         arriba o abajo de ella, o todos son copas con las paredes a los costados de
+     *         la vista y la base y la tapa arriba o abajo.
+     */
+    private static boolean hidden(int[] node, int b, int viewTop, int viewBottom, int viewW) {
+        if (node[b + SPAN_TOP] >= viewBottom || node[b + SPAN_BOTTOM] <= viewTop) return true;
+        return node[b + LEFT_WALL_END] <= 0 && node[b + RIGHT_WALL_START] >= viewW
+            && (node[b + LID_TOP] >= viewBottom || node[b + LID_BOTTOM] <= viewTop)
+            && (node[b + BASE_TOP] >= viewBottom || node[b + BASE_BOTTOM] <= viewTop);
+    }
+
+    /**
+     * Busca el siguiente elemento que puede verse en una vista de viewW píxeles de ancho
+     * que empieza en x = 0 y va de viewTop a viewBottom en y (en las coordenadas de esta
+     * geometría). Solo descarta bloques enteros; los elementos que devuelve hay que
+     * revisarlos uno por uno.
+     * @return la primera posición de [from, to) que no está en un bloque descartado, o 'to'.
+     */
+    public int nextInView(int from, int to, int viewTop, int viewBottom, int viewW) {
+        long i = from;
+        while (i < to) {
+            long skip = 0;
+            long span = BLOCK;
+            for (int level = 0; level < levels && i % span == 0; level++, span *= BLOCK) {
+                if (!hidden(blocks[level], (int) (i / span) * FIELDS, viewTop, viewBottom, viewW)) break;
+                skip = span;
+            }
+            if (skip == 0) return (int) i;
+            i += skip;
+        }
+        return to;
+    }
+
+    /**
+     * Agrega la banda de un grupo que empieza a 'acc' cm y mide 'group' cm; sus
+     * elementos van desde 'first' hasta el primero de la banda siguiente.
+     */
+    private void closeBand(int first, int widest, int acc, int group, int scale, int baseY) {
+        if (bandCount == bandX.length) {
+            int cap = 2 * bandCount;
+            bandX = Arrays.copyOf(bandX, cap);
+            bandY = Arrays.copyOf(bandY, cap);
+            bandW = Arrays.copyOf(bandW, cap);
+            bandH = Arrays.copyOf(bandH, cap);
+            bandItem = Arrays.copyOf(bandItem, cap);
+            bandFirst = Arrays.copyOf(bandFirst, cap);
+            bandAcc = Arrays.copyOf(bandAcc, cap);
+        }
+        bandX[bandCount] = x[widest];
+        bandW[bandCount] = w[widest];
+        bandH[bandCount] = group * scale;
+        bandY[bandCount] = baseY - (acc + group) * scale;
+        bandItem[bandCount] = widest;
+        bandFirst[bandCount] = first;
+        bandAcc[bandCount] = acc;
+        bandCount++;
+    }
+
+    /** @return cantidad de elementos calculados. */
+    public int size() {
+        return size;
+    }
+
+    /** @return altura efectiva en cm de la secuencia calculada. */
+    public int heightCm() {
+        return heightCm;
+    }
+
+    public int x(int i) {
+        return x[i];
+    }
+
+    public int y(int i) {
+        return y[i];
+    }
+
+    public int width(int i) {
+        return w[i];
+    }
+
+    public int height(int i) {
+        return h[i];
+    }
+
+    /** @return cantidad de bandas calculadas. */
+    public int bandCount() {
+        return bandCount;
+    }
+
+    public int bandX(int b) {
+        return bandX[b];
+    }
+
+    public int bandY(int b) {
+        return bandY[b];
+    }
+
+    public int bandWidth(int b) {
+        return bandW[b];
+    }
+
+    public int bandHeight(int b) {
+        return bandH[b];
+    }
+
+    /** @return índice del elemento más ancho de la banda, que le da el color. */
+    public int bandItem(int b) {
+        return bandItem[b];
+    }
+
+    /** @return índice del primer elemento de la banda. */
+    public int bandFirstItem(int b) {
+        return bandFirst[b];
+    }
+
+    /** @return índice siguiente al último elemento de la banda. */
+    public int bandEndItem(int b) {
+        return (b + 1 < bandCount) ? bandFirst[b + 1] : size;
+    }
+
+    /**
+     * @param yMax coordenada y en píxeles.
+     * @return la primera banda (desde abajo) cuyo borde superior está en yMax o más
+     *         arriba, o bandCount() si no hay ninguna.
+     */
+    public int firstBandAbove(int yMax) {
+        int lo = 0;
+        int hi = bandCount;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (bandY[mid] <= yMax) hi = mid;
+            else lo = mid + 1;
+        }
+        return lo;
+    }
+}
@@ -0,0 +1,199 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+import java.util.ArrayList;
+
+/**
+ * Clase de pruebas unitarias para la clase TowerLayout.
+ *
+ * @author Julian Morales - Sergio Buitrago
+ *
+ */
+public class TowerLayoutTest {
+
+    /**
+     * La altura que deja la geometría debe ser la misma altura efectiva del índice.
+     */
+    @Test
+    public void heightCm_shouldMatchPersistentTower() {
+        java.util.Random random = new java.util.Random(7);
+        TowerLayout layout = new TowerLayout();
+        for (int round = 0; round < 300; round++) {
+            ArrayList<Object> items = new ArrayList<>();
+            PersistentTower p = PersistentTower.empty();
+            int n = random.nextInt(25);
+            for (int i = 0; i < n; i++) {
+                int number = 1 + random.nextInt(9);
+                if (random.nextInt(3) == 0) {
+                    items.add(new Lid(number));
+                    p = p.push(PersistentTower.lidCode(number));
+                } else {
+                    items.add(new Cup(number));
+                    p = p.push(PersistentTower.cupCode(number));
+                }
+            }
+            layout.update(items, round, 2, 0, 300, 40);
+            assertEquals(p.height(), layout.heightCm());
+        }
+    }
+
+    /**
+     * Una copa anidada queda un cm más arriba que la que la contiene, y con la
+     * misma versión y escala no se recalcula.
+     */
+    @Test
+    public void update_shouldNestAndCacheByVersionAndScale() {
+        ArrayList<Object> items = new ArrayList<>();
+        items.add(new Cup(4));
+        items.add(new Cup(3));
+        TowerLayout layout = new TowerLayout();
+
+        assertTrue(layout.update(items, 1, 10, 0, 300, 70));
+        assertEquals(2, layout.size());
+        assertEquals(300 - 70, layout.y(0));
+        assertEquals(300 - 10 - 50, layout.y(1));
+        assertEquals(layout.x(0) + 10, layout.x(1));
+
+        assertFalse(layout.update(items, 1, 10, 0, 300, 70));
+        assertTrue(layout.update(items, 1, 5, 0, 300, 70));
+    }
+
+    /**
+     * Cada grupo de elementos anidados forma una banda con el alto del grupo y el
+     * ancho del elemento más ancho; las bandas van de abajo hacia arriba.
+     */
+    @Test
+    public void bands_shouldWrapEachNestedGroup() {
+        ArrayList<Object> items = new ArrayList<>();
+        items.add(new Cup(5));
+        items.add(new Cup(3));
+        items.add(new Cup(6));
+        TowerLayout layout = new TowerLayout();
+        layout.update(items, 1, 1, 0, 300, 20);
+
+        assertEquals(2, layout.bandCount());
+        assertEquals(0, layout.bandItem(0));
+        assertEquals(300 - 9, layout.bandY(0));
+        assertEquals(9, layout.bandHeight(0));
+        assertEquals(layout.x(0), layout.bandX(0));
+        assertEquals(9, layout.bandWidth(0));
+        assertEquals(2, layout.bandItem(1));
+        assertEquals(300 - 20, layout.bandY(1));
+        assertEquals(11, layout.bandHeight(1));
+
+        assertEquals(0, layout.firstBandAbove(300));
+        assertEquals(1, layout.firstBandAbove(285));
+        assertEquals(2, layout.firstBandAbove(250));
+    }
+
+    /** Cada banda conoce el rango de elementos que contiene, en orden y sin huecos. */
+    @Test
+    public void bands_shouldKnowTheirItemRange() {
+        ArrayList<Object> items = new ArrayList<>();
+        items.add(new Cup(5));
+        items.add(new Cup(3));
+        items.add(new Cup(6));
+        items.add(new Lid(6));
+        TowerLayout layout = new TowerLayout();
+        layout.update(items, 1, 1, 0, 300, 20);
+
+        assertEquals(2, layout.bandCount());
+        assertEquals(0, layout.bandFirstItem(0));
+        assertEquals(2, layout.bandEndItem(0));
+        assertEquals(2, layout.bandFirstItem(1));
+        assertEquals(4, layout.bandEndItem(1));
+    }
+
+    /**
+     * Retomar el recorrido desde la primera posición que cambió debe dejar la misma
+     * geometría y las mismas bandas que recalcular todo.
+     */
+    @Test
+    public void update_fromChangedPosition_shouldMatchFullRecompute() {
+        java.util.Random random = new java.util.Random(11);
+        ArrayList<Object> items = new ArrayList<>();
+        TowerLayout incremental = new TowerLayout();
+        for (int round = 1; round <= 2000; round++) {
+            int from;
+            int op = random.nextInt(4);
+            if (op == 0 && !items.isEmpty()) {
+                from = random.nextInt(items.size());
+                items.remove(from);
+            } else if (op == 1) {
+                from = random.nextInt(items.size() + 1);
+                items.add(from, random.nextBoolean() ? new Cup(1 + random.nextInt(9)) : new Lid(1 + random.nextInt(9)));
+            } else {
+                from = items.size();
+                items.add(random.nextInt(3) == 0 ? new Lid(1 + random.nextInt(9)) : new Cup(1 + random.nextInt(9)));
+            }
+            incremental.update(items, round, from, 2, 0, 300, 40);
+            TowerLayout full = new TowerLayout();
+            full.update(items, round, 2, 0, 300, 40);
+
+            assertEquals(full.size(), incremental.size());
+            assertEquals(full.heightCm(), incremental.heightCm());
+            for (int i = 0; i < full.size(); i++) {
+                assertEquals(full.x(i), incremental.x(i));
+                assertEquals(full.y(i), incremental.y(i));
+                assertEquals(full.width(i), incremental.width(i));
+            }
+            assertEquals(full.bandCount(), incremental.bandCount());
+            for (int b = 0; b < full.bandCount(); b++) {
+                assertEquals(full.bandY(b), incremental.bandY(b));
+                assertEquals(full.bandHeight(b), incremental.bandHeight(b));
+                assertEquals(full.bandItem(b), incremental.bandItem(b));
+                assertEquals(full.bandFirstItem(b), incremental.bandFirstItem(b));
+            }
+        }
+    }
+
+    /**
+     * El índice de bloques solo puede saltar elementos que no se ven: ninguna copa con
+     * un rectángulo en la vista ni ninguna tapa suelta queda afuera, y en una banda de
+     * muchas copas anidadas casi todo se salta.
+     */
+    @Test
+    public void nextInView_shouldOnlySkipHiddenItems() {
+        java.util.Random random = new java.util.Random(5);
+        TowerLayout layout = new TowerLayout();
+        for (int round = 1; round <= 60; round++) {
+            ArrayList<Object> items = new ArrayList<>();
+            int n = random.nextInt(3000);
+            for (int i = 0; i < n; i++) {
+                int number = 1 + random.nextInt(round < 30 ? 40 : 400);
+                items.add(round % 2 == 0 && random.nextInt(6) == 0 ? new Lid(number) : new Cup(number));
+            }
+            int scale = 2 + random.nextInt(10);
+            layout.update(items, round, scale, -1000, 300, 2300);
+            for (int view = 0; view < 20; view++) {
+                int top = -random.nextInt(Math.max(1, layout.heightCm() * scale + 300)) + 300;
+                int bottom = top + 300;
+                int next = layout.nextInView(0, n, top, bottom, 300);
+                for (int i = 0; i < n; i++) {
+                    if (i == next) {
+                        next = layout.nextInView(i + 1, n, top, bottom, 300);
+                        continue;
+                    }
+                    assertTrue(i < next);
+                    assertTrue(items.get(i) instanceof Cup);
+                    Cup cup = (Cup) items.get(i);
+                    int x = layout.x(i);
+                    int y = layout.y(i) - top;
+                    int w = layout.width(i);
+                    int h = layout.height(i);
+                    assertFalse(cup.partsInView(x, y, w, h, 300, 300));
+                    assertFalse(Cup.inView(x, y, w, Lid.thicknessOn(h), 300, 300));
+                }
+            }
+        }
+
+        ArrayList<Object> nested = new ArrayList<>();
+        for (int i = 20000; i >= 1; i--) nested.add(new Cup(i));
+        layout.update(nested, 1, 10, -200000, 300, 400000);
+        int visited = 0;
+        for (int i = layout.nextInView(0, 20000, -100000, -99700, 300); i < 20000;
+             i = layout.nextInView(i + 1, 20000, -100000, -99700, 300)) {
+            visited++;
+        }
+        assertTrue(visited < 1000);
+    }
+}
\ No newline at end of file
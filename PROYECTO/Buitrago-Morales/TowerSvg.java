@@ -0,0 +1,118 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * Escritura de una torre como SVG.
+ *
+ * Ubica cada elemento con el mismo recorrido de anidamiento de TowerLayout
+ * ({@link NestingWalker}), pero en cm y sobre la marcha: recorre la secuencia una vez
+ * para medir el dibujo y otra para escribirlo, elemento por elemento. Lee los códigos
+ * de una versión persistente por tramos de tamaño fijo y solo guarda la pila de
+ * niveles abiertos, así que la memoria no crece con la cantidad de elementos y el
+ * archivo sale con todo el detalle sin importar el tamaño de la torre.
+ *
+ * Las copas se dibujan como una "U" de paredes de 1 cm y la tapa de una copa sobre su
+ * borde; una tapa suelta ocupa su lugar en la pila con el ancho de la copa que le
+ * corresponde. Debajo va la base, de 1 cm.
+ *
+ * @author Julian Morales - Sergio Buitrago
+ */
+public final class TowerSvg {
+    private static final int WALL_CM = 1;
+    private static final int CHUNK = 4096;
+
+    private TowerSvg() {
+    }
+
+    /**
+     * @param tower versión persistente con los elementos, de abajo hacia arriba.
+     * @param coveredCups números de las copas tapadas, en orden ascendente; la tapa
+     *                    de una de ellas se dibuja sobre su borde.
+     * @param out destino; no se cierra.
+     * @param pixelsPerCm tamaño con que se muestra un cm, debe ser positivo.
+     */
+    public static void write(PersistentTower tower, int[] coveredCups, Writer out, int pixelsPerCm)
+            throws IOException {
+        if (pixelsPerCm <= 0) throw new IllegalArgumentException("Pixels per cm must be positive");
+        int[] codes = new int[CHUNK];
+        NestingWalker walker = new NestingWalker();
+        int size = tower.size();
+
+        // Primera pasada: ancho (el elemento más ancho) y altura efectiva.
+        // En long: la altura de una torre grande no cabe en un int.
+        int widthCm = 1;
+        for (int from = 0; from < size; from += CHUNK) {
+            int count = tower.copy(from, codes);
+            for (int k = 0; k < count; k++) {
+                int code = codes[k];
+                widthCm = Math.max(widthCm, widthOf(code));
+                walker.add(PersistentTower.heightOf(code), PersistentTower.isCup(code));
+            }
+        }
+        long heightCm = walker.height();
+
+        StringBuilder line = new StringBuilder(128);
+        line.append("<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"").append(widthCm * pixelsPerCm)
+            .append("\" height=\"").append((heightCm + 1) * pixelsPerCm)
+            .append("\" viewBox=\"0 0 ").append(widthCm).append(' ').append(heightCm + 1).append("\">\n");
+        out.write(line.toString());
+
+        // Segunda pasada: cada elemento en su lugar, con y hacia abajo desde el tope.
+        walker.reset();
+        for (int from = 0; from < size; from += CHUNK) {
+            int count = tower.copy(from, codes);
+            for (int k = 0; k < count; k++) {
+                int code = codes[k];
+                int n = PersistentTower.number(code);
+                int hCm = PersistentTower.heightOf(code);
+                walker.place(hCm);
+                long y = heightCm - (walker.acc() + walker.depth() * WALL_CM) - hCm;
+                int w = widthOf(code);
+                int x = (widthCm - w) / 2;
+                boolean covered = Arrays.binarySearch(coveredCups, n) >= 0;
+
+                line.setLength(0);
+                if (PersistentTower.isCup(code)) {
+                    appendCup(line, x, y, w, hCm, Cup.colorOf(n));
+                    if (covered) appendRect(line, x, y, w, 1, Cup.colorOf(n));
+                    walker.open(walker.depth(), hCm);
+                } else {
+                    // La tapa de una copa tapada ya salió con la copa.
+                    if (!covered) appendRect(line, x, y, w, hCm, Cup.colorOf(n));
+                    walker.close();
+                }
+                out.write(line.toString());
+            }
+        }
+
+        line.setLength(0);
+        appendRect(line, 0, heightCm, widthCm, 1, "black");
+        line.append("</svg>\n");
+        out.write(line.toString());
+    }
+
+    /** Ancho en cm: el de la copa, o el de la copa que le corresponde a una tapa. */
+    private static int widthOf(int code) {
+        return 2 * PersistentTower.number(code) - 1;
+    }
+
+    /** Copa en forma de "U": paredes y fondo de WALL_CM. */
+    private static void appendCup(StringBuilder sb, int x, long y, int w, int h, String color) {
+        if (w <= 2 * WALL_CM || h <= WALL_CM) {
+            appendRect(sb, x, y, w, h, color);
+            return;
+        }
+        sb.append("<path fill=\"").append(color).append("\" d=\"M").append(x).append(',').append(y)
+          .append('h').append(WALL_CM).append('v').append(h - WALL_CM)
+          .append('h').append(w - 2 * WALL_CM).append('v').append(-(h - WALL_CM))
+          .append('h').append(WALL_CM).append('v').append(h)
+          .append('h').append(-w).append("z\"/>\n");
+    }
+
+    private static void appendRect(StringBuilder sb, int x, long y, int w, long h, String color) {
+        sb.append("<rect x=\"").append(x).append("\" y=\"").append(y)
+          .append("\" width=\"").append(w).append("\" height=\"").append(h)
+          .append("\" fill=\"").append(color).append("\"/>\n");
+    }
+}
@@ -0,0 +1,55 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+import java.io.StringWriter;
+
+/**
+ * Clase de pruebas unitarias para la clase TowerSvg.
+ *
+ * @author Julian Morales - Sergio Buitrago
+ *
+ */
+public class TowerSvgTest {
+
+    /**
+     * Una copa anidada queda un cm más arriba que la que la contiene, la tapa de una
+     * copa se dibuja sobre su borde y el dibujo mide la altura de la torre más la base.
+     */
+    @Test
+    public void write_shouldPlaceItemsLikeTheTower() throws Exception {
+        Tower t = new Tower(20, 100);
+        t.pushCup(4);
+        t.pushCup(3);
+        t.pushLid(3);
+        StringWriter out = new StringWriter();
+        t.exportSvg(out, 10);
+        String svg = out.toString();
+
+        assertTrue(svg.startsWith("<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"70\" height=\""
+            + (t.height() + 1) * 10 + "\" viewBox=\"0 0 7 " + (t.height() + 1) + "\">"));
+        int h = t.height();
+        assertTrue(svg.contains("<path fill=\"yellow\" d=\"M0," + (h - 7) + "h1v6h5v-6h1v7h-7z\"/>"));
+        assertTrue(svg.contains("<path fill=\"green\" d=\"M1," + (h - 1 - 5) + "h1v4h3v-4h1v5h-5z\"/>"));
+        assertTrue(svg.contains("<rect x=\"1\" y=\"" + (h - 6) + "\" width=\"5\" height=\"1\" fill=\"green\"/>"));
+        assertTrue(svg.contains("<rect x=\"0\" y=\"" + h + "\" width=\"7\" height=\"1\" fill=\"black\"/>"));
+        assertTrue(svg.endsWith("</svg>\n"));
+    }
+
+    /**
+     * Una tapa suelta ocupa su lugar con el ancho de su copa, y el tamaño debe ser positivo.
+     */
+    @Test
+    public void write_shouldDrawLooseLidsAndRejectBadScale() throws Exception {
+        Tower t = new Tower(20, 100);
+        t.pushLid(2);
+        StringWriter out = new StringWriter();
+        t.exportSvg(out, 1);
+        assertTrue(out.toString().contains("<rect x=\"0\" y=\"0\" width=\"3\" height=\"1\" fill=\"blue\"/>"));
+
+        try {
+            t.exportSvg(new StringWriter(), 0);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            assertEquals("Pixels per cm must be positive", e.getMessage());
+        }
+    }
+}
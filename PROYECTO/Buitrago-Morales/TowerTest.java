@@ -490,4 +490,542 @@ public class TowerTest {
         t.cover();
         assertTrue(t.ok());
     }
+    
+    
+    /**
+     * undo() debe revertir un swap, incluida la reubicación de las tapas.
+     */
+    @Test
+    public void undo_afterSwap_shouldRestorePreviousSequence() {
+        Tower t = new Tower(100, 50);
+        t.pushCup(4);
+        t.pushCup(2);
+        t.pushLid(4);
+        String[][] before = t.stackingItems();
+
+        t.swap(new String[]{"cup", "4"}, new String[]{"cup", "2"});
+        t.undo();
+
+        assertArrayEquals(before, t.stackingItems());
+        assertArrayEquals(new int[]{4}, t.lidedCups());
+    }
+
+    /**
+     * undo() debe recuperar las copas descartadas por orderTower() y redo() volver a aplicarlo.
+     */
+    @Test
+    public void undoRedo_orderTower_shouldRestoreDroppedCups() {
+        Tower t = new Tower(100, 10);
+        t.pushCup(4);
+        t.pushCup(3);
+        t.pushCup(2);
+        String[][] before = t.stackingItems();
+
+        t.orderTower();
+        String[][] ordered = t.stackingItems();
+        assertTrue(ordered.length < before.length);
+
+        t.undo();
+        assertArrayEquals(before, t.stackingItems());
+        assertTrue(t.canRedo());
+
+        t.redo();
+        assertArrayEquals(ordered, t.stackingItems());
+    }
+
+    /**
+     * Una operación nueva debe descartar lo que había para rehacer.
+     */
+    @Test
+    public void newOperation_afterUndo_shouldClearRedo() {
+        Tower t = new Tower(60, 40);
+        t.pushCup(3);
+        t.undo();
+        assertEquals(0, t.height());
+
+        t.pushCup(2);
+        assertFalse(t.canRedo());
+        assertTrue(t.canUndo());
+    }
+
+    /**
+     * Con presupuesto 0 la bitácora no debe guardar nada.
+     */
+    @Test
+    public void journalBudgetZero_shouldDisableUndo() {
+        Tower t = new Tower(60, 40);
+        t.setJournalBudget(0);
+        t.pushCup(3);
+        t.pushCup(2);
+        assertFalse(t.canUndo());
+    }
+    
+    
+    /**
+     * Las consultas hipotéticas deben predecir la altura sin modificar la torre.
+     */
+    @Test
+    public void heightIf_shouldPredictWithoutMutating() {
+        Tower t = new Tower(100, 50);
+        t.pushCup(4);
+        t.pushCup(2);
+        String[][] before = t.stackingItems();
+
+        assertEquals(7, t.heightIfPushCup(1));
+        assertEquals(12, t.heightIfPushCup(3));
+        assertEquals(3, t.heightIfRemoveCup(4));
+        assertEquals(10, t.heightIfSwap(4, 2));
+        assertArrayEquals(before, t.stackingItems());
+
+        t.swap(new String[]{"cup", "4"}, new String[]{"cup", "2"});
+        assertEquals(10, t.height());
+    }
+
+    /**
+     * Las consultas sobre elementos inválidos deben devolver -1.
+     */
+    @Test
+    public void heightIf_invalidTargets_shouldReturnMinusOne() {
+        Tower t = new Tower(100, 50);
+        t.pushCup(4);
+        t.pushLid(4);
+
+        assertEquals(-1, t.heightIfPushCup(4));
+        assertEquals(-1, t.heightIfPushLid(4));
+        assertEquals(-1, t.heightIfRemoveCup(9));
+        assertEquals(-1, t.heightIfRemoveLid(9));
+        assertEquals(-1, t.heightIfSwap(4, 9));
+    }
+    
+    
+    /**
+     * Quitar una copa del medio debe actualizar la altura efectiva.
+     */
+    @Test
+    public void removeCup_fromMiddle_shouldUpdateHeight() {
+        Tower t = new Tower(100, 100);
+        t.pushCup(2);
+        t.pushCup(5);
+        t.pushCup(3);
+        assertEquals(12, t.height());
+
+        t.removeCup(5);
+        assertEquals(8, t.height());
+        assertTrue(t.ok());
+    }
+
+    /**
+     * itemAt debe devolver el descriptor de cada posición y null fuera de rango.
+     */
+    @Test
+    public void itemAt_shouldReturnDescriptorByPosition() {
+        Tower t = new Tower(80, 40);
+        t.pushCup(2);
+        t.pushLid(2);
+        t.pushCup(1);
+
+        assertArrayEquals(new String[]{"cup", "2"}, t.itemAt(0));
+        assertArrayEquals(new String[]{"lid", "2"}, t.itemAt(1));
+        assertArrayEquals(new String[]{"cup", "1"}, t.itemAt(2));
+        assertNull(t.itemAt(3));
+    }
+
+    /**
+     * Al intercambiar copas tapadas, cada tapa debe quedar justo encima de su copa.
+     */
+    @Test
+    public void swap_coveredCups_shouldMoveLidsWithCups() {
+        Tower t = new Tower(100, 50);
+        t.pushCup(4);
+        t.pushLid(4);
+        t.pushCup(2);
+        t.pushCup(3);
+        t.pushLid(3);
+
+        t.swap(new String[]{"cup", "4"}, new String[]{"cup", "3"});
+
+        String[][] items = t.stackingItems();
+        assertArrayEquals(new String[]{"cup", "3"}, items[0]);
+        assertArrayEquals(new String[]{"lid", "3"}, items[1]);
+        assertArrayEquals(new String[]{"cup", "2"}, items[2]);
+        assertArrayEquals(new String[]{"cup", "4"}, items[3]);
+        assertArrayEquals(new String[]{"lid", "4"}, items[4]);
+        assertEquals(t.snapshot().height(), t.height());
+    }
+
+    /**
+     * Un swap que excede la altura máxima no debe modificar la secuencia.
+     */
+    @Test
+    public void swap_exceedingMaxHeight_shouldLeaveSequenceUnchanged() {
+        Tower t = new Tower(100, 12);
+        t.pushCup(5);
+        t.pushLid(5);
+        t.pushCup(3);
+        String[][] before = t.stackingItems();
+
+        t.swap(new String[]{"cup", "5"}, new String[]{"cup", "3"});
+
+        String[][] after = t.stackingItems();
+        assertEquals(before.length, after.length);
+        for (int i = 0; i < before.length; i++) assertArrayEquals(before[i], after[i]);
+    }
+
+    /**
+     * cover con rango solo debe tapar esas copas y uncover debe destaparlas todas.
+     */
+    @Test
+    public void coverRange_andUncover_shouldUpdateLidedCups() {
+        Tower t = new Tower(100, 80);
+        t.pushCup(5);
+        t.pushCup(2);
+        t.pushCup(3);
+        t.pushLid(5);
+        t.pushLid(2);
+        t.pushLid(3);
+        t.uncover();
+        assertEquals(0, t.lidedCups().length);
+
+        t.cover(3, 5);
+        assertArrayEquals(new int[]{3, 5}, t.lidedCups());
+
+        t.cover();
+        assertArrayEquals(new int[]{2, 3, 5}, t.lidedCups());
+
+        t.uncover();
+        t.undo();
+        assertArrayEquals(new int[]{2, 3, 5}, t.lidedCups());
+    }
+
+    /**
+     * lidedCupCount debe seguir a las tapas al agregarlas, quitarlas y deshacer.
+     */
+    @Test
+    public void lidedCupCount_shouldFollowLidChanges() {
+        Tower t = new Tower(100, 80);
+        t.pushCup(4);
+        t.pushCup(2);
+        t.pushLid(2);
+        t.pushLid(4);
+        assertEquals(2, t.lidedCupCount());
+
+        t.removeCup(2);
+        assertEquals(1, t.lidedCupCount());
+        assertArrayEquals(new int[]{4}, t.lidedCups());
+
+        t.undo();
+        assertEquals(2, t.lidedCupCount());
+        assertArrayEquals(new int[]{2, 4}, t.lidedCups());
+    }
+
+    /**
+     * stackingItems se reutiliza mientras la versión no cambie y stackingCodes
+     * usa el número en negativo para las tapas.
+     */
+    @Test
+    public void stackingItems_shouldBeCachedUntilVersionChanges() {
+        Tower t = new Tower(100, 80);
+        t.pushCup(3);
+        t.pushLid(3);
+        long v = t.version();
+        String[][] first = t.stackingItems();
+
+        assertSame(first, t.stackingItems());
+        assertArrayEquals(new int[]{3, -3}, t.stackingCodes());
+
+        t.pushCup(5);
+        assertTrue(t.version() > v);
+        assertNotSame(first, t.stackingItems());
+        assertEquals(3, t.stackingItems().length);
+    }
+
+    /**
+     * Con keepMostCups, orderTower debe descartar la menor cantidad de copas.
+     */
+    @Test
+    public void orderTower_keepMostCups_shouldDiscardFewestCups() {
+        Tower greedy = new Tower(100, 10);
+        Tower most = new Tower(100, 10);
+        for (Tower t : new Tower[]{greedy, most}) {
+            t.pushCup(5);
+            t.pushCup(3);
+            t.pushCup(2);
+        }
+
+        greedy.orderTower();
+        most.orderTower(true);
+
+        assertEquals(1, greedy.stackingItems().length);
+        assertEquals("5", greedy.stackingItems()[0][1]);
+        String[][] items = most.stackingItems();
+        assertEquals(2, items.length);
+        assertEquals("3", items[0][1]);
+        assertEquals("2", items[1][1]);
+    }
+
+    /**
+     * reverseTower debe recortar según la altura efectiva, no la suma de alturas.
+     */
+    @Test
+    public void reverseTower_shouldTruncateByEffectiveHeight() {
+        Tower t = new Tower(100, 15);
+        t.pushCup(5);
+        t.pushCup(2);
+        t.pushCup(3);
+
+        t.reverseTower();
+
+        String[][] items = t.stackingItems();
+        assertEquals(3, items.length);
+        assertEquals("3", items[0][1]);
+        assertEquals("5", items[2][1]);
+        assertEquals(14, t.height());
+        assertTrue(t.ok());
+    }
+
+    /**
+     * La torre perezosa responde la altura sin crear copas y se comporta igual
+     * que la normal al usarla.
+     */
+    @Test
+    public void lazyConstructor_shouldMatchEagerTower() {
+        Tower lazy = new Tower(10000, false);
+        assertEquals(10000 * 10000, lazy.height());
+        assertTrue(lazy.ok());
+
+        Tower small = new Tower(4, false);
+        small.pushLid(2);
+        String[][] items = small.stackingItems();
+        assertEquals(5, items.length);
+        assertArrayEquals(new String[]{"cup", "1"}, items[0]);
+        assertArrayEquals(new String[]{"lid", "2"}, items[4]);
+        assertArrayEquals(new int[]{2}, small.lidedCups());
+        assertEquals(small.snapshot().height(), small.height());
+    }
+
+    /**
+     * Cambiar el zoom o desplazar la vista no toca la torre; un zoom no positivo
+     * se rechaza sin lanzar excepción.
+     */
+    @Test
+    public void viewChanges_shouldNotAffectTower() {
+        Tower t = new Tower(100, 100);
+        t.pushCup(5);
+        t.pushCup(3);
+        long version = t.version();
+        t.setZoom(0);
+        t.setZoom(1);
+        t.scrollTo(-5);
+        t.scrollTo(1000);
+        t.fitToCanvas();
+        assertEquals(version, t.version());
+        assertEquals(9, t.height());
+        assertEquals(2, t.stackingItems().length);
+    }
+
+    /**
+     * Torres con canvas fuera de pantalla propios se dibujan a la vez desde hilos
+     * distintos, sin ventana y sin el Timer de Swing.
+     */
+    @Test
+    public void offscreenTowers_shouldRenderConcurrently() throws Exception {
+        final Tower[] towers = new Tower[4];
+        Thread[] threads = new Thread[towers.length];
+        for (int k = 0; k < towers.length; k++) {
+            final int id = k;
+            towers[k] = new Tower(50, 200, Canvas.offscreen(300, 300));
+            threads[k] = new Thread(new Runnable() {
+                public void run() {
+                    Tower t = towers[id];
+                    t.makeVisible();
+                    for (int i = 1; i <= 20; i++) {
+                        t.pushCup(i);
+                        if (i % 3 == 0) t.pushLid(i);
+                        t.flushRendering();
+                    }
+                    t.setZoom(1);
+                    t.flushRendering();
+                    t.makeInvisible();
+                    t.flushRendering();
+                }
+            });
+        }
+        for (Thread th : threads) th.start();
+        for (Thread th : threads) th.join();
+
+        Tower reference = new Tower(50, 200);
+        for (int i = 1; i <= 20; i++) {
+            reference.pushCup(i);
+            if (i % 3 == 0) reference.pushLid(i);
+        }
+        for (Tower t : towers) {
+            assertArrayEquals(reference.stackingItems(), t.stackingItems());
+            assertEquals(reference.height(), t.height());
+        }
+    }
+
+    /**
+     * cover() con una tapa de número enorme no debe reservar memoria hasta ese número.
+     */
+    @Test
+    public void cover_withHugeLidNumber_shouldLeaveLidLoose() {
+        Tower t = new Tower(10, 10);
+        t.pushLid(500_000_000);
+        t.cover();
+        assertArrayEquals(new String[][]{{"lid", "500000000"}}, t.stackingItems());
+        assertEquals(0, t.lidedCupCount());
+    }
+
+    /**
+     * Tapar una copa de número enorme no debe reservar memoria hasta ese número, y la
+     * copa debe aparecer igual en lidedCups().
+     */
+    @Test
+    public void coveredHugeCup_shouldBeListedWithoutIndexingItsNumber() {
+        Tower t = new Tower(10, Integer.MAX_VALUE);
+        t.pushCup(3);
+        t.pushLid(3);
+        t.pushCup(1_000_000_000);
+        t.pushLid(1_000_000_000);
+        assertArrayEquals(new int[]{3, 1_000_000_000}, t.lidedCups());
+        assertEquals(2, t.lidedCupCount());
+
+        t.popLid();
+        assertArrayEquals(new int[]{3}, t.lidedCups());
+        t.undo();
+        assertArrayEquals(new int[]{3, 1_000_000_000}, t.lidedCups());
+        t.removeCup(1_000_000_000);
+        assertEquals(1, t.lidedCupCount());
+    }
+
+    /**
+     * orderTower() con una tapa suelta de número enorme debe ordenar sin reservar
+     * memoria hasta ese número.
+     */
+    @Test
+    public void orderTower_withHugeLidNumber_shouldSortByComparison() {
+        Tower t = new Tower(10, 10);
+        t.pushLid(3);
+        t.pushLid(500_000_000);
+        t.pushCup(2);
+        t.orderTower();
+        assertArrayEquals(new String[][]{{"cup", "2"}, {"lid", "500000000"}, {"lid", "3"}},
+                          t.stackingItems());
+    }
+
+    /**
+     * Un push rechazado no debe dejar una operación vacía en la bitácora.
+     */
+    @Test
+    public void rejectedPush_shouldNotBeUndoable() {
+        Tower t = new Tower(100, 5);
+        t.pushCup(2);
+        t.undo();
+        t.pushCup(9);
+        t.pushCup(2);
+        t.pushCup(2);
+        t.undo();
+        assertEquals(0, t.stackingItems().length);
+        t.redo();
+        assertArrayEquals(new String[][]{{"cup", "2"}}, t.stackingItems());
+    }
+
+    /**
+     * Varias operaciones seguidas y un solo flushRendering deben producir un solo dibujo.
+     */
+    @Test
+    public void mutations_shouldCoalesceIntoOneFrame() {
+        Tower t = new Tower(100, 1000, Canvas.offscreen(300, 300));
+        t.makeVisible();
+        for (int i = 1; i <= 20; i++) t.pushCup(i);
+        t.pushLid(3);
+        t.swap(new String[]{"cup", "1"}, new String[]{"cup", "2"});
+        t.flushRendering();
+        assertEquals(1, t.framesDrawn());
+
+        t.flushRendering();
+        assertEquals(1, t.framesDrawn());
+
+        t.popCup();
+        t.undo();
+        t.flushRendering();
+        assertEquals(2, t.framesDrawn());
+    }
+
+    /**
+     * Cada cuadro compone el canvas una sola vez, y la base y las marcas (fondo) solo
+     * se rasterizan de nuevo cuando la vista cambia, una vez por cuadro.
+     */
+    @Test
+    public void frames_shouldCompositeOnceAndKeepBackgroundCached() {
+        Canvas canvas = Canvas.offscreen(300, 300);
+        Tower t = new Tower(100, 1000, canvas);
+        t.makeVisible();
+        for (int i = 40; i > 30; i--) t.pushCup(i);
+        t.flushRendering();
+        long composites = canvas.compositeCount();
+        long backgrounds = canvas.backgroundRenderCount();
+
+        for (int i = 30; i > 20; i--) {
+            t.pushCup(i);
+            t.flushRendering();
+        }
+        assertEquals(composites + 10, canvas.compositeCount());
+        assertEquals(backgrounds, canvas.backgroundRenderCount());
+
+        t.setZoom(3);
+        t.flushRendering();
+        t.scrollTo(40);
+        t.flushRendering();
+        assertEquals(backgrounds + 2, canvas.backgroundRenderCount());
+        assertEquals(composites + 12, canvas.compositeCount());
+    }
+
+    /**
+     * Un push o un pop sobre una torre alta y visible solo debe dibujar lo que cambió:
+     * las copas que no se movieron no vuelven a enviarse al canvas.
+     */
+    @Test
+    public void pushAndPop_onTallTower_shouldDrawOnlyChangedItems() {
+        Canvas canvas = Canvas.offscreen(300, 300);
+        Tower t = new Tower(1000, 100000, canvas);
+        t.makeVisible();
+        for (int i = 400; i > 100; i--) t.pushCup(i);
+        t.flushRendering();
+
+        long draws = canvas.drawCount();
+        t.pushCup(50);
+        t.flushRendering();
+        assertTrue(canvas.drawCount() - draws <= 6);
+
+        draws = canvas.drawCount();
+        t.popCup();
+        t.flushRendering();
+        assertEquals(draws, canvas.drawCount());
+    }
+
+    /**
+     * En una torre anidada y profunda, con zoom, las paredes de las copas grandes quedan
+     * muy lejos a los lados del canvas: solo deben dibujarse los rectángulos que lo
+     * cruzan, así que la cantidad de figuras no depende de la cantidad de copas.
+     */
+    @Test
+    public void scrolledNestedTower_shouldDrawOnlyRectanglesInView() {
+        Canvas canvas = Canvas.offscreen(300, 300);
+        Tower t = new Tower(4000, 4000, canvas);
+        for (int i = 2000; i >= 1; i--) t.pushCup(i);
+        t.makeVisible();
+        t.setZoom(2);
+        t.scrollTo(1000);
+        t.flushRendering();
+        int shapes = canvas.foregroundShapeCount();
+        assertTrue(shapes > 0);
+        assertTrue(shapes <= 300);
+
+        long draws = canvas.drawCount();
+        t.scrollTo(1010);
+        t.flushRendering();
+        assertTrue(canvas.foregroundShapeCount() <= 300);
+        assertTrue(canvas.drawCount() - draws <= 2 * 300);
+    }
 }
\ No newline at end of file
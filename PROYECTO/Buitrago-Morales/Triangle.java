@@ -17,6 +17,7 @@ public class Triangle{
     private int yPosition;
     private String color;
     private boolean isVisible;
+    private Canvas canvas;
 
     /**
      * Create a new triangle at default position with default color.
@@ -156,12 +157,23 @@ public class Triangle{
         draw();
     }
 
+    /**
+     * Choose the canvas this triangle draws into.
+     * @param canvas the canvas, or null for the shared one (Canvas.getCanvas())
+     */
+    public void setCanvas(Canvas canvas){
+        if(canvas == this.canvas) return;
+        erase();
+        this.canvas = canvas;
+        draw();
+    }
+
     /*
      * Draw the triangle with current specifications on screen.
      */
     private void draw(){
         if(isVisible) {
-            Canvas canvas = Canvas.getCanvas();
+            Canvas canvas = (this.canvas != null) ? this.canvas : Canvas.getCanvas();
             int[] xpoints = { xPosition, xPosition + (width/2), xPosition - (width/2) };
             int[] ypoints = { yPosition, yPosition + height, yPosition + height };
             canvas.draw(this, color, new Polygon(xpoints, ypoints, 3));
@@ -174,7 +186,7 @@ public class Triangle{
      */
     private void erase(){
         if(isVisible) {
-            Canvas canvas = Canvas.getCanvas();
+            Canvas canvas = (this.canvas != null) ? this.canvas : Canvas.getCanvas();
             canvas.erase(this);
         }
     }